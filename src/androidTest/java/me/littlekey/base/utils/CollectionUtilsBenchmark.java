@@ -0,0 +1,136 @@
+package me.littlekey.base.utils;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * sequential vs parallel CollectionUtils over growing sizes, prints one line per size so the
+ * crossover for {@link CollectionUtils#setParallelThreshold} can be read from logcat
+ * (I/System.out). results are checked against the sequential run on the way.
+ * Created by littlekey on 26/10/18.
+ */
+public class CollectionUtilsBenchmark extends TestCase {
+  private static final int[] SIZES = {1 << 10, 1 << 12, 1 << 14, 1 << 16, 1 << 18, 1 << 20};
+  private static final int ROUNDS = 5;
+  // parallel on from the smallest size, the crossover is what this measures
+  private static final int THRESHOLD = SIZES[0];
+
+  private static final CollectionUtils.FilterCallback<Integer> EVEN_MIX =
+      new CollectionUtils.FilterCallback<Integer>() {
+        @Override
+        public boolean onFilter(Integer item) {
+          return (mix(item) & 1) == 0;
+        }
+      };
+  private static final CollectionUtils.MapCallback<Integer, Integer> MIX =
+      new CollectionUtils.MapCallback<Integer, Integer>() {
+        @Override
+        public Integer onMap(Integer item) {
+          return mix(item);
+        }
+      };
+  private static final CollectionUtils.MapCallback<Integer, Integer> BUCKET =
+      new CollectionUtils.MapCallback<Integer, Integer>() {
+        @Override
+        public Integer onMap(Integer item) {
+          return mix(item) & 15;
+        }
+      };
+
+  private ExecutorService mPool;
+  private int mParallelism;
+  private int mOldThreshold;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mParallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+    mPool = Executors.newFixedThreadPool(mParallelism - 1);
+    mOldThreshold = CollectionUtils.getParallelThreshold();
+    CollectionUtils.setParallelThreshold(THRESHOLD);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    CollectionUtils.setParallelThreshold(mOldThreshold);
+    mPool.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testCrossover() {
+    System.out.println("parallelism " + mParallelism + ", best of " + ROUNDS
+        + " in us, sequential / parallel");
+    for (int size : SIZES) {
+      List<Integer> list = new ArrayList<>(size);
+      for (int i = 0; i < size; ++i) {
+        list.add(i);
+      }
+      long sequentialFilter = Long.MAX_VALUE;
+      long parallelFilter = Long.MAX_VALUE;
+      long sequentialMap = Long.MAX_VALUE;
+      long parallelMap = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; ++round) {
+        long start = System.nanoTime();
+        List<Integer> expected = CollectionUtils.parallelFilter(list, EVEN_MIX, mPool, 1);
+        sequentialFilter = Math.min(sequentialFilter, System.nanoTime() - start);
+        start = System.nanoTime();
+        List<Integer> actual = CollectionUtils.parallelFilter(list, EVEN_MIX, mPool, mParallelism);
+        parallelFilter = Math.min(parallelFilter, System.nanoTime() - start);
+        assertEquals(expected, actual);
+
+        start = System.nanoTime();
+        expected = CollectionUtils.parallelMap(list, MIX, mPool, 1);
+        sequentialMap = Math.min(sequentialMap, System.nanoTime() - start);
+        start = System.nanoTime();
+        actual = CollectionUtils.parallelMap(list, MIX, mPool, mParallelism);
+        parallelMap = Math.min(parallelMap, System.nanoTime() - start);
+        assertEquals(expected, actual);
+      }
+      System.out.println("size " + size
+          + "  filter " + sequentialFilter / 1000 + " / " + parallelFilter / 1000
+          + "  map " + sequentialMap / 1000 + " / " + parallelMap / 1000);
+    }
+  }
+
+  public void testPartitionAndGroupKeepOrder() {
+    int size = THRESHOLD * 8 + 3;
+    List<Integer> list = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) {
+      list.add(i);
+    }
+    Map<Boolean, List<Integer>> partition =
+        CollectionUtils.parallelPartition(list, EVEN_MIX, mPool, mParallelism);
+    assertEquals(CollectionUtils.parallelFilter(list, EVEN_MIX, mPool, 1), partition.get(true));
+    assertEquals(size, partition.get(true).size() + partition.get(false).size());
+
+    Map<Integer, List<Integer>> groups = CollectionUtils.parallelGroupBy(list, BUCKET, mPool, mParallelism);
+    Map<Integer, List<Integer>> expected = CollectionUtils.parallelGroupBy(list, BUCKET, mPool, 1);
+    assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(groups.keySet()));
+    assertEquals(expected, groups);
+  }
+
+  public void testSaturatedPoolFallsBackToCaller() {
+    ExecutorService busy = Executors.newSingleThreadExecutor();
+    busy.shutdown();
+    List<Integer> list = new ArrayList<>();
+    for (int i = 0; i < THRESHOLD * 4; ++i) {
+      list.add(i);
+    }
+    // rejected tasks, the calling thread runs every chunk
+    assertEquals(list.size(), CollectionUtils.parallelMap(list, MIX, busy, 4).size());
+  }
+
+  private static int mix(int value) {
+    int h = value * 0x9E3779B9;
+    for (int i = 0; i < 8; ++i) {
+      h ^= h >>> 15;
+      h *= 0x2C1B3C6D;
+    }
+    return h;
+  }
+}
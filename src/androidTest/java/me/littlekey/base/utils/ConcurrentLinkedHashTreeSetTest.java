@@ -0,0 +1,112 @@
+package me.littlekey.base.utils;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * stress harness: many writers race on overlapping ranges while readers walk snapshots.
+ * Created by littlekey on 26/10/18.
+ */
+public class ConcurrentLinkedHashTreeSetTest extends TestCase {
+  private static final int WRITERS = 4;
+  private static final int READERS = 4;
+  private static final int ITEMS_PER_WRITER = 20000;
+  private static final int BATCH = 100;
+
+  public void testStress() throws Exception {
+    final ConcurrentLinkedHashTreeSet<Integer> set = new ConcurrentLinkedHashTreeSet<>();
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> writers = new ArrayList<>();
+    List<Thread> readers = new ArrayList<>();
+
+    for (int w = 0; w < WRITERS; ++w) {
+      // ranges overlap by half, so writers fight over duplicates
+      final int base = w * ITEMS_PER_WRITER / 2;
+      writers.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < ITEMS_PER_WRITER; i += BATCH) {
+              final List<Integer> page = new ArrayList<>(BATCH);
+              for (int j = 0; j < BATCH; ++j) {
+                page.add(base + i + j);
+              }
+              if ((i / BATCH) % 2 == 0) {
+                set.addAll(page);
+              } else {
+                set.edit(new ConcurrentLinkedHashTreeSet.Edit<Integer>() {
+                  @Override
+                  public void apply(LinkedHashTreeSet<Integer> writer) {
+                    for (Integer item : page) {
+                      writer.add(0, item);
+                    }
+                  }
+                });
+              }
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      }));
+    }
+
+    for (int r = 0; r < READERS; ++r) {
+      readers.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            int lastSize = 0;
+            while (writing.get()) {
+              ConcurrentLinkedHashTreeSet.Snapshot<Integer> snapshot = set.snapshot();
+              int size = snapshot.size();
+              // nothing is removed, versions only grow
+              assertTrue(size >= lastSize);
+              lastSize = size;
+              for (int i = 0; i < size; ++i) {
+                Integer item = snapshot.getItem(i);
+                assertNotNull(item);
+                assertEquals(i, snapshot.indexOf(item));
+              }
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      }));
+    }
+
+    for (Thread thread : readers) {
+      thread.start();
+    }
+    for (Thread thread : writers) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : writers) {
+      thread.join();
+    }
+    writing.set(false);
+    for (Thread thread : readers) {
+      thread.join();
+    }
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    int expected = (WRITERS + 1) * ITEMS_PER_WRITER / 2;
+    assertEquals(expected, set.size());
+    for (int i = 0; i < expected; ++i) {
+      assertTrue(set.contains(i));
+    }
+  }
+}
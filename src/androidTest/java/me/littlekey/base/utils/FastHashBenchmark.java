@@ -0,0 +1,101 @@
+package me.littlekey.base.utils;
+
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * FastHash against the md5 cache key path over growing key lengths, prints one line per length
+ * to logcat (I/System.out). reference vectors pin the output, persisted keys rely on it.
+ * Created by littlekey on 26/10/18.
+ */
+public class FastHashBenchmark extends TestCase {
+  private static final int[] LENGTHS = {16, 64, 256, 1024, 16 * 1024};
+  private static final int KEYS = 1024;
+  private static final int ROUNDS = 5;
+
+  public void testReferenceVectors() throws UnsupportedEncodingException {
+    byte[] fox = "The quick brown fox jumps over the lazy dog".getBytes("UTF-8");
+    long[] hash = new long[2];
+    FastHash.murmur3Hash128(fox, 0, fox.length, 0, hash);
+    assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+    assertEquals(0x7a433ca9c49a9347L, hash[1]);
+    byte[] hello = "hello".getBytes("UTF-8");
+    FastHash.murmur3Hash128(hello, 0, hello.length, 0, hash);
+    assertEquals(0xcbd8a7b341bd9b02L, hash[0]);
+    assertEquals(0x5b1e906a48ae1d19L, hash[1]);
+    assertEquals(0xef46db3751d8e999L, FastHash.xxHash64(new byte[0]));
+    assertEquals(0xd24ec4f1a98c6e5bL, FastHash.xxHash64("a".getBytes("UTF-8")));
+    assertEquals(0x0b242d361fda71bcL, FastHash.xxHash64(fox));
+  }
+
+  public void testCharSequenceMatchesUtf16Bytes() throws UnsupportedEncodingException {
+    Random random = new Random(20);
+    long[] chars = new long[2];
+    long[] bytes = new long[2];
+    for (int length = 0; length < 80; ++length) {
+      String key = randomKey(random, length);
+      byte[] utf16 = key.getBytes("UTF-16LE");
+      assertEquals(FastHash.xxHash64(utf16, 0, utf16.length, 7), FastHash.xxHash64(key, 7));
+      FastHash.murmur3Hash128(key, 7, chars);
+      FastHash.murmur3Hash128(utf16, 0, utf16.length, 7, bytes);
+      assertEquals(bytes[0], chars[0]);
+      assertEquals(bytes[1], chars[1]);
+    }
+  }
+
+  public void testAgainstMd5() {
+    System.out.println("ns per key, best of " + ROUNDS
+        + ": length getMD5 getCacheKey murmur3Hash128 xxHash64");
+    Random random = new Random(42);
+    long[] hash = new long[2];
+    long sink = 0;
+    for (int length : LENGTHS) {
+      String[] keys = new String[KEYS];
+      for (int i = 0; i < KEYS; ++i) {
+        keys[i] = randomKey(random, length);
+      }
+      long md5 = Long.MAX_VALUE;
+      long cacheKey = Long.MAX_VALUE;
+      long murmur = Long.MAX_VALUE;
+      long xx = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; ++round) {
+        long start = System.nanoTime();
+        for (String key : keys) {
+          sink += FormatUtils.getMD5(key).length();
+        }
+        md5 = Math.min(md5, System.nanoTime() - start);
+        start = System.nanoTime();
+        for (String key : keys) {
+          sink += FormatUtils.getCacheKey(key).length();
+        }
+        cacheKey = Math.min(cacheKey, System.nanoTime() - start);
+        start = System.nanoTime();
+        for (String key : keys) {
+          sink += FastHash.murmur3Hash128(key, 0, hash);
+        }
+        murmur = Math.min(murmur, System.nanoTime() - start);
+        start = System.nanoTime();
+        for (String key : keys) {
+          sink += FastHash.xxHash64(key);
+        }
+        xx = Math.min(xx, System.nanoTime() - start);
+      }
+      System.out.println(length + " " + md5 / KEYS + " " + cacheKey / KEYS + " "
+          + murmur / KEYS + " " + xx / KEYS);
+    }
+    // keeps the loops alive
+    assertTrue(sink != 1);
+  }
+
+  private static String randomKey(Random random, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; ++i) {
+      // mostly url like ascii with some cjk
+      chars[i] = random.nextInt(8) == 0 ? (char) (0x4E00 + random.nextInt(0x5000))
+          : (char) (0x20 + random.nextInt(0x5F));
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,86 @@
+package me.littlekey.base.utils;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * page loads completing out of order, driven by a hand cranked load executor.
+ * Created by littlekey on 26/10/18.
+ */
+public class PagedReadOnlyListTest extends TestCase {
+  private static final int ITEMS = 65;
+  private static final int PAGE_SIZE = 20;
+  private static final Integer PLACEHOLDER = -1;
+
+  private final List<Runnable> mQueue = new ArrayList<>();
+  private final List<Integer> mLoaded = new ArrayList<>();
+
+  public void testOutOfOrderShortPagesKeepLowestEnd() {
+    PagedReadOnlyList<Integer> list = newList();
+    list.getItem(100);
+    // requested nearest first: 5, 6, 4, 7, 3, finished here as 3, 4, 5, 6, 7
+    assertEquals(5, mQueue.size());
+    runQueued(4, 2, 0, 1, 3);
+    assertEquals("[3, 4, 5, 6, 7]", mLoaded.toString());
+    assertEquals(ITEMS, list.size());
+    assertTrue(list.isSizeKnown());
+    assertItems(list);
+  }
+
+  public void testEmptyPagesFirstThenShortPage() {
+    PagedReadOnlyList<Integer> list = newList();
+    list.getItem(100);
+    // 7 is empty and sets the end to 140, the short page 3 must bring it back to 65
+    runQueued(3, 0, 1, 2, 4);
+    assertEquals("[7, 5, 6, 4, 3]", mLoaded.toString());
+    assertEquals(ITEMS, list.size());
+    assertTrue(list.isSizeKnown());
+    assertItems(list);
+  }
+
+  private PagedReadOnlyList<Integer> newList() {
+    PagedReadOnlyList.PageLoader<Integer> loader = new PagedReadOnlyList.PageLoader<Integer>() {
+      @Override
+      public List<Integer> loadPage(int page, int pageSize) {
+        mLoaded.add(page);
+        List<Integer> items = new ArrayList<>();
+        for (int i = page * pageSize; i < Math.min(ITEMS, (page + 1) * pageSize); ++i) {
+          items.add(i);
+        }
+        return items;
+      }
+    };
+    Executor queue = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        mQueue.add(command);
+      }
+    };
+    return new PagedReadOnlyList<>(loader, PAGE_SIZE, 1000, 40, 8, PLACEHOLDER, queue, null);
+  }
+
+  private void runQueued(int... order) {
+    List<Runnable> tasks = new ArrayList<>(mQueue);
+    mQueue.clear();
+    for (int i : order) {
+      tasks.get(i).run();
+    }
+  }
+
+  // every position loads, possibly after one more round of requests
+  private void assertItems(PagedReadOnlyList<Integer> list) {
+    for (int position = 0; position < list.size(); ++position) {
+      Integer item = list.getItem(position);
+      while (item.equals(PLACEHOLDER)) {
+        assertFalse("position " + position + " never loads", mQueue.isEmpty());
+        Runnable task = mQueue.remove(0);
+        task.run();
+        item = list.getItem(position);
+      }
+      assertEquals(position, item.intValue());
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package me.littlekey.base.primitive;
+
+/**
+ * shared sizing and hash spreading of the open addressing tables in this package, mix is also
+ * used by callers that pick a table segment from the high bits.
+ * Created by littlekey on 26/10/18.
+ */
+public final class HashMixer {
+  static final int MIN_CAPACITY = 8;
+  static final float LOAD_FACTOR = 0.75f;
+
+  private HashMixer() {}
+
+  // ids are often sequential, spread them before masking
+  public static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  public static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+}
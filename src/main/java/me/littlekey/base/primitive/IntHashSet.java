@@ -0,0 +1,101 @@
+package me.littlekey.base.primitive;
+
+/**
+ * open addressing int set, linear probing with backward shift deletion, no boxing and no
+ * per entry object, not thread safe.
+ * 0 marks an empty bucket, the value 0 itself is kept in a flag.
+ * Created by littlekey on 26/10/18.
+ */
+public class IntHashSet extends IntTable {
+  private boolean mHasZero;
+
+  public IntHashSet() {
+    this(HashMixer.MIN_CAPACITY);
+  }
+
+  public IntHashSet(int expectedSize) {
+    super(expectedSize, 0);
+  }
+
+  public int size() {
+    return mHasZero ? mCount + 1 : mCount;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public boolean contains(int value) {
+    return value == 0 ? mHasZero : find(value) >= 0;
+  }
+
+  /**
+   * @return true if value was absent
+   */
+  public boolean add(int value) {
+    if (value == 0) {
+      boolean added = !mHasZero;
+      mHasZero = true;
+      return added;
+    }
+    if (insert(value) >= 0) {
+      return false;
+    }
+    grow();
+    return true;
+  }
+
+  /**
+   * @return true if value was present
+   */
+  public boolean remove(int value) {
+    if (value == 0) {
+      boolean removed = mHasZero;
+      mHasZero = false;
+      return removed;
+    }
+    int offset = find(value);
+    if (offset < 0) {
+      return false;
+    }
+    removeAt(offset);
+    return true;
+  }
+
+  public void clear() {
+    clearEntries();
+    mHasZero = false;
+  }
+
+  public void ensureCapacity(int expectedSize) {
+    ensureEntries(expectedSize);
+  }
+
+  /**
+   * in table order, must not modify the set
+   */
+  public void forEach(IntVisitor visitor) {
+    if (mHasZero) {
+      visitor.visit(0);
+    }
+    for (int key : mEntries) {
+      if (key != 0) {
+        visitor.visit(key);
+      }
+    }
+  }
+
+  public int[] toArray() {
+    int[] result = new int[size()];
+    int i = 0;
+    if (mHasZero) {
+      ++i;
+    }
+    for (int key : mEntries) {
+      if (key != 0) {
+        result[i++] = key;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,161 @@
+package me.littlekey.base.primitive;
+
+/**
+ * open addressing int -> int map, linear probing with backward shift deletion, no boxing and no
+ * per entry object, not thread safe.
+ * keys and values are interleaved in one int[] so a probe touches a single cache line.
+ * key 0 marks an empty bucket, the entry of key 0 itself is kept in fields.
+ * Created by littlekey on 26/10/18.
+ */
+public class IntIntMap extends IntTable {
+  private final int mMissingValue;
+  private boolean mHasZero;
+  private int mZeroValue;
+
+  public interface Visitor {
+    void visit(int key, int value);
+  }
+
+  /**
+   * @param missingValue returned by {@link #get} and friends for absent keys
+   */
+  public IntIntMap(int missingValue) {
+    this(HashMixer.MIN_CAPACITY, missingValue);
+  }
+
+  public IntIntMap(int expectedSize, int missingValue) {
+    super(expectedSize, 1);
+    mMissingValue = missingValue;
+  }
+
+  /**
+   * independent copy of source, one array clone
+   */
+  public IntIntMap(IntIntMap source) {
+    super(source);
+    mMissingValue = source.mMissingValue;
+    mHasZero = source.mHasZero;
+    mZeroValue = source.mZeroValue;
+  }
+
+  public int size() {
+    return mHasZero ? mCount + 1 : mCount;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int getMissingValue() {
+    return mMissingValue;
+  }
+
+  /**
+   * @return value of key, or the missing value
+   */
+  public int get(int key) {
+    if (key == 0) {
+      return mHasZero ? mZeroValue : mMissingValue;
+    }
+    int offset = find(key);
+    return offset < 0 ? mMissingValue : mEntries[offset + 1];
+  }
+
+  public boolean containsKey(int key) {
+    return key == 0 ? mHasZero : find(key) >= 0;
+  }
+
+  /**
+   * @return previous value of key, or the missing value
+   */
+  public int put(int key, int value) {
+    if (key == 0) {
+      int old = mHasZero ? mZeroValue : mMissingValue;
+      mHasZero = true;
+      mZeroValue = value;
+      return old;
+    }
+    int offset = insert(key);
+    if (offset < 0) {
+      mEntries[~offset + 1] = value;
+      grow();
+      return mMissingValue;
+    }
+    int old = mEntries[offset + 1];
+    mEntries[offset + 1] = value;
+    return old;
+  }
+
+  /**
+   * add delta to the value of key, an absent key starts from 0, e.g. counters
+   * @return new value
+   */
+  public int increment(int key, int delta) {
+    if (key == 0) {
+      mZeroValue = (mHasZero ? mZeroValue : 0) + delta;
+      mHasZero = true;
+      return mZeroValue;
+    }
+    int offset = insert(key);
+    if (offset < 0) {
+      mEntries[~offset + 1] = delta;
+      grow();
+      return delta;
+    }
+    return mEntries[offset + 1] += delta;
+  }
+
+  /**
+   * @return removed value of key, or the missing value
+   */
+  public int remove(int key) {
+    if (key == 0) {
+      int old = mHasZero ? mZeroValue : mMissingValue;
+      mHasZero = false;
+      return old;
+    }
+    int offset = find(key);
+    if (offset < 0) {
+      return mMissingValue;
+    }
+    int old = mEntries[offset + 1];
+    removeAt(offset);
+    return old;
+  }
+
+  public void clear() {
+    clearEntries();
+    mHasZero = false;
+  }
+
+  public void ensureCapacity(int expectedSize) {
+    ensureEntries(expectedSize);
+  }
+
+  /**
+   * in table order, must not modify the map
+   */
+  public void forEach(Visitor visitor) {
+    if (mHasZero) {
+      visitor.visit(0, mZeroValue);
+    }
+    int[] entries = mEntries;
+    for (int j = 0; j < entries.length; j += 2) {
+      if (entries[j] != 0) {
+        visitor.visit(entries[j], entries[j + 1]);
+      }
+    }
+  }
+
+  public int[] keys() {
+    int[] result = new int[size()];
+    int i = mHasZero ? 1 : 0;
+    int[] entries = mEntries;
+    for (int j = 0; j < entries.length; j += 2) {
+      if (entries[j] != 0) {
+        result[i++] = entries[j];
+      }
+    }
+    return result;
+  }
+}
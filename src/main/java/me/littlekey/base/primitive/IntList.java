@@ -0,0 +1,210 @@
+package me.littlekey.base.primitive;
+
+import java.util.Arrays;
+
+/**
+ * growable int[] list, the unboxed ArrayList&lt;Integer&gt;, not thread safe.
+ * Created by littlekey on 26/10/18.
+ */
+public class IntList implements IntReadOnlyList {
+  private static final int[] EMPTY = new int[0];
+
+  private int[] mValues;
+  private int mSize;
+
+  public IntList() {
+    mValues = EMPTY;
+  }
+
+  public IntList(int initialCapacity) {
+    mValues = initialCapacity == 0 ? EMPTY : new int[initialCapacity];
+  }
+
+  /**
+   * copies values
+   */
+  public static IntList of(int... values) {
+    IntList list = new IntList(values.length);
+    list.addAll(values, 0, values.length);
+    return list;
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  public boolean isEmpty() {
+    return mSize == 0;
+  }
+
+  @Override
+  public int getInt(int position) {
+    checkPosition(position);
+    return mValues[position];
+  }
+
+  /**
+   * @return previous value
+   */
+  public int set(int position, int value) {
+    checkPosition(position);
+    int old = mValues[position];
+    mValues[position] = value;
+    return old;
+  }
+
+  public void add(int value) {
+    if (mSize == mValues.length) {
+      grow(mSize + 1);
+    }
+    mValues[mSize++] = value;
+  }
+
+  public void add(int position, int value) {
+    if (position < 0 || position > mSize) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+    }
+    if (mSize == mValues.length) {
+      grow(mSize + 1);
+    }
+    System.arraycopy(mValues, position, mValues, position + 1, mSize - position);
+    mValues[position] = value;
+    ++mSize;
+  }
+
+  public void addAll(int[] values, int offset, int count) {
+    ensureCapacity(mSize + count);
+    System.arraycopy(values, offset, mValues, mSize, count);
+    mSize += count;
+  }
+
+  public void addAll(IntReadOnlyList values) {
+    int count = values.size();
+    ensureCapacity(mSize + count);
+    for (int i = 0; i < count; ++i) {
+      mValues[mSize++] = values.getInt(i);
+    }
+  }
+
+  /**
+   * @return removed value
+   */
+  public int removeAt(int position) {
+    checkPosition(position);
+    int old = mValues[position];
+    System.arraycopy(mValues, position + 1, mValues, position, mSize - position - 1);
+    --mSize;
+    return old;
+  }
+
+  /**
+   * remove first occurrence of value
+   */
+  public boolean removeValue(int value) {
+    int position = indexOf(value);
+    if (position == -1) {
+      return false;
+    }
+    removeAt(position);
+    return true;
+  }
+
+  public int indexOf(int value) {
+    int[] values = mValues;
+    for (int i = 0; i < mSize; ++i) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public boolean contains(int value) {
+    return indexOf(value) != -1;
+  }
+
+  public void clear() {
+    mSize = 0;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > mValues.length) {
+      grow(capacity);
+    }
+  }
+
+  public void sort() {
+    Arrays.sort(mValues, 0, mSize);
+  }
+
+  /**
+   * on a sorted list
+   * @return position of value, or -(insertion point) - 1
+   */
+  public int binarySearch(int value) {
+    return Arrays.binarySearch(mValues, 0, mSize, value);
+  }
+
+  public void forEach(IntVisitor visitor) {
+    for (int i = 0; i < mSize; ++i) {
+      visitor.visit(mValues[i]);
+    }
+  }
+
+  public int[] toArray() {
+    return Arrays.copyOf(mValues, mSize);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof IntList)) {
+      return false;
+    }
+    IntList other = (IntList) object;
+    if (mSize != other.mSize) {
+      return false;
+    }
+    for (int i = 0; i < mSize; ++i) {
+      if (mValues[i] != other.mValues[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < mSize; ++i) {
+      hash = 31 * hash + mValues[i];
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(mSize * 4 + 2).append('[');
+    for (int i = 0; i < mSize; ++i) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(mValues[i]);
+    }
+    return builder.append(']').toString();
+  }
+
+  private void grow(int minCapacity) {
+    int capacity = Math.max(minCapacity, Math.max(8, mValues.length + (mValues.length >> 1)));
+    mValues = Arrays.copyOf(mValues, capacity);
+  }
+
+  private void checkPosition(int position) {
+    if (position < 0 || position >= mSize) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package me.littlekey.base.primitive;
+
+/**
+ * int sibling of {@link me.littlekey.base.ReadOnlyList}, no boxing.
+ * Created by littlekey on 26/10/18.
+ */
+public interface IntReadOnlyList {
+  int getInt(int position);
+  int size();
+}
@@ -0,0 +1,151 @@
+package me.littlekey.base.primitive;
+
+import java.util.Arrays;
+
+/**
+ * open addressing core of {@link IntHashSet} and {@link IntIntMap}: linear probing with backward
+ * shift deletion over one int[], no boxing and no per entry object, not thread safe.
+ * a bucket is the key followed by its payload ints, so a probe touches a single cache line.
+ * key 0 marks an empty bucket, subclasses keep the key 0 itself apart.
+ * Created by littlekey on 26/10/18.
+ */
+abstract class IntTable {
+  // log2 of ints per bucket
+  private final int mShift;
+  // [key0, payload0..., key1, payload1..., ...]
+  int[] mEntries;
+  private int mMask;
+  // entries in mEntries, without key 0
+  int mCount;
+  private int mThreshold;
+
+  IntTable(int expectedSize, int shift) {
+    mShift = shift;
+    allocate(HashMixer.capacityFor(expectedSize));
+  }
+
+  /**
+   * independent copy of source, one array clone
+   */
+  IntTable(IntTable source) {
+    mShift = source.mShift;
+    mEntries = source.mEntries.clone();
+    mMask = source.mMask;
+    mCount = source.mCount;
+    mThreshold = source.mThreshold;
+  }
+
+  /**
+   * @return entry offset of a non zero key, or -1
+   */
+  final int find(int key) {
+    int[] entries = mEntries;
+    int mask = mMask;
+    int shift = mShift;
+    for (int i = HashMixer.mix(key) & mask; ; i = (i + 1) & mask) {
+      int existing = entries[i << shift];
+      if (existing == 0) {
+        return -1;
+      }
+      if (existing == key) {
+        return i << shift;
+      }
+    }
+  }
+
+  /**
+   * single probe for put like updates, an absent key is stored with a zero payload
+   * @return entry offset of a non zero key, ~offset if it was absent, then the caller fills the
+   * payload and calls {@link #grow()}
+   */
+  final int insert(int key) {
+    int[] entries = mEntries;
+    int mask = mMask;
+    int shift = mShift;
+    for (int i = HashMixer.mix(key) & mask; ; i = (i + 1) & mask) {
+      int existing = entries[i << shift];
+      if (existing == 0) {
+        entries[i << shift] = key;
+        ++mCount;
+        return ~(i << shift);
+      }
+      if (existing == key) {
+        return i << shift;
+      }
+    }
+  }
+
+  /**
+   * after an insert is complete, offsets are invalid afterwards
+   */
+  final void grow() {
+    if (mCount > mThreshold) {
+      rehash((mMask + 1) << 1);
+    }
+  }
+
+  final void removeAt(int offset) {
+    shiftBack(offset >> mShift);
+    --mCount;
+  }
+
+  final void clearEntries() {
+    Arrays.fill(mEntries, 0);
+    mCount = 0;
+  }
+
+  final void ensureEntries(int expectedSize) {
+    int capacity = HashMixer.capacityFor(expectedSize);
+    if (capacity > mMask + 1) {
+      rehash(capacity);
+    }
+  }
+
+  // backward shift deletion keeps probe chains intact without tombstones
+  private void shiftBack(int hole) {
+    int[] entries = mEntries;
+    int mask = mMask;
+    int shift = mShift;
+    int stride = 1 << shift;
+    int i = hole;
+    while (true) {
+      i = (i + 1) & mask;
+      int key = entries[i << shift];
+      if (key == 0) {
+        break;
+      }
+      int home = HashMixer.mix(key) & mask;
+      // entry at i may move to hole only if its home is not in (hole, i]
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        System.arraycopy(entries, i << shift, entries, hole << shift, stride);
+        hole = i;
+      }
+    }
+    Arrays.fill(entries, hole << shift, (hole + 1) << shift, 0);
+  }
+
+  private void rehash(int capacity) {
+    int[] old = mEntries;
+    allocate(capacity);
+    int[] entries = mEntries;
+    int mask = mMask;
+    int shift = mShift;
+    int stride = 1 << shift;
+    for (int j = 0; j < old.length; j += stride) {
+      int key = old[j];
+      if (key != 0) {
+        int i = HashMixer.mix(key) & mask;
+        while (entries[i << shift] != 0) {
+          i = (i + 1) & mask;
+        }
+        System.arraycopy(old, j, entries, i << shift, stride);
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    mEntries = new int[capacity << mShift];
+    mMask = capacity - 1;
+    mThreshold = (int) (capacity * HashMixer.LOAD_FACTOR);
+  }
+}
@@ -0,0 +1,8 @@
+package me.littlekey.base.primitive;
+
+/**
+ * Created by littlekey on 26/10/18.
+ */
+public interface IntVisitor {
+  void visit(int value);
+}
@@ -0,0 +1,101 @@
+package me.littlekey.base.primitive;
+
+/**
+ * open addressing long set, linear probing with backward shift deletion, no boxing and no
+ * per entry object, not thread safe.
+ * 0 marks an empty bucket, the value 0 itself is kept in a flag.
+ * Created by littlekey on 26/10/18.
+ */
+public class LongHashSet extends LongTable {
+  private boolean mHasZero;
+
+  public LongHashSet() {
+    this(HashMixer.MIN_CAPACITY);
+  }
+
+  public LongHashSet(int expectedSize) {
+    super(expectedSize, false);
+  }
+
+  public int size() {
+    return mHasZero ? mCount + 1 : mCount;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public boolean contains(long value) {
+    return value == 0 ? mHasZero : find(value) >= 0;
+  }
+
+  /**
+   * @return true if value was absent
+   */
+  public boolean add(long value) {
+    if (value == 0) {
+      boolean added = !mHasZero;
+      mHasZero = true;
+      return added;
+    }
+    if (insert(value) >= 0) {
+      return false;
+    }
+    grow();
+    return true;
+  }
+
+  /**
+   * @return true if value was present
+   */
+  public boolean remove(long value) {
+    if (value == 0) {
+      boolean removed = mHasZero;
+      mHasZero = false;
+      return removed;
+    }
+    int bucket = find(value);
+    if (bucket < 0) {
+      return false;
+    }
+    removeAt(bucket);
+    return true;
+  }
+
+  public void clear() {
+    clearEntries();
+    mHasZero = false;
+  }
+
+  public void ensureCapacity(int expectedSize) {
+    ensureEntries(expectedSize);
+  }
+
+  /**
+   * in table order, must not modify the set
+   */
+  public void forEach(LongVisitor visitor) {
+    if (mHasZero) {
+      visitor.visit(0);
+    }
+    for (long key : mKeys) {
+      if (key != 0) {
+        visitor.visit(key);
+      }
+    }
+  }
+
+  public long[] toArray() {
+    long[] result = new long[size()];
+    int i = 0;
+    if (mHasZero) {
+      ++i;
+    }
+    for (long key : mKeys) {
+      if (key != 0) {
+        result[i++] = key;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,130 @@
+package me.littlekey.base.primitive;
+
+/**
+ * open addressing long -> int map, e.g. server id -> position, linear probing with backward
+ * shift deletion, no boxing and no per entry object, not thread safe.
+ * key 0 marks an empty bucket, the entry of key 0 itself is kept in fields.
+ * Created by littlekey on 26/10/18.
+ */
+public class LongIntMap extends LongTable {
+  private final int mMissingValue;
+  private boolean mHasZero;
+  private int mZeroValue;
+
+  public interface Visitor {
+    void visit(long key, int value);
+  }
+
+  /**
+   * @param missingValue returned by {@link #get} and friends for absent keys
+   */
+  public LongIntMap(int missingValue) {
+    this(HashMixer.MIN_CAPACITY, missingValue);
+  }
+
+  public LongIntMap(int expectedSize, int missingValue) {
+    super(expectedSize, true);
+    mMissingValue = missingValue;
+  }
+
+  public int size() {
+    return mHasZero ? mCount + 1 : mCount;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int getMissingValue() {
+    return mMissingValue;
+  }
+
+  /**
+   * @return value of key, or the missing value
+   */
+  public int get(long key) {
+    if (key == 0) {
+      return mHasZero ? mZeroValue : mMissingValue;
+    }
+    int i = find(key);
+    return i < 0 ? mMissingValue : mValues[i];
+  }
+
+  public boolean containsKey(long key) {
+    return key == 0 ? mHasZero : find(key) >= 0;
+  }
+
+  /**
+   * @return previous value of key, or the missing value
+   */
+  public int put(long key, int value) {
+    if (key == 0) {
+      int old = mHasZero ? mZeroValue : mMissingValue;
+      mHasZero = true;
+      mZeroValue = value;
+      return old;
+    }
+    int i = insert(key);
+    if (i < 0) {
+      mValues[~i] = value;
+      grow();
+      return mMissingValue;
+    }
+    int old = mValues[i];
+    mValues[i] = value;
+    return old;
+  }
+
+  /**
+   * @return removed value of key, or the missing value
+   */
+  public int remove(long key) {
+    if (key == 0) {
+      int old = mHasZero ? mZeroValue : mMissingValue;
+      mHasZero = false;
+      return old;
+    }
+    int i = find(key);
+    if (i < 0) {
+      return mMissingValue;
+    }
+    int old = mValues[i];
+    removeAt(i);
+    return old;
+  }
+
+  public void clear() {
+    clearEntries();
+    mHasZero = false;
+  }
+
+  public void ensureCapacity(int expectedSize) {
+    ensureEntries(expectedSize);
+  }
+
+  /**
+   * in table order, must not modify the map
+   */
+  public void forEach(Visitor visitor) {
+    if (mHasZero) {
+      visitor.visit(0, mZeroValue);
+    }
+    long[] keys = mKeys;
+    for (int i = 0; i < keys.length; ++i) {
+      if (keys[i] != 0) {
+        visitor.visit(keys[i], mValues[i]);
+      }
+    }
+  }
+
+  public long[] keys() {
+    long[] result = new long[size()];
+    int j = mHasZero ? 1 : 0;
+    for (long key : mKeys) {
+      if (key != 0) {
+        result[j++] = key;
+      }
+    }
+    return result;
+  }
+}
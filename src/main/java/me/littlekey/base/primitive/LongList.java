@@ -0,0 +1,210 @@
+package me.littlekey.base.primitive;
+
+import java.util.Arrays;
+
+/**
+ * growable long[] list, the unboxed ArrayList&lt;Long&gt;, not thread safe.
+ * Created by littlekey on 26/10/18.
+ */
+public class LongList implements LongReadOnlyList {
+  private static final long[] EMPTY = new long[0];
+
+  private long[] mValues;
+  private int mSize;
+
+  public LongList() {
+    mValues = EMPTY;
+  }
+
+  public LongList(int initialCapacity) {
+    mValues = initialCapacity == 0 ? EMPTY : new long[initialCapacity];
+  }
+
+  /**
+   * copies values
+   */
+  public static LongList of(long... values) {
+    LongList list = new LongList(values.length);
+    list.addAll(values, 0, values.length);
+    return list;
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  public boolean isEmpty() {
+    return mSize == 0;
+  }
+
+  @Override
+  public long getLong(int position) {
+    checkPosition(position);
+    return mValues[position];
+  }
+
+  /**
+   * @return previous value
+   */
+  public long set(int position, long value) {
+    checkPosition(position);
+    long old = mValues[position];
+    mValues[position] = value;
+    return old;
+  }
+
+  public void add(long value) {
+    if (mSize == mValues.length) {
+      grow(mSize + 1);
+    }
+    mValues[mSize++] = value;
+  }
+
+  public void add(int position, long value) {
+    if (position < 0 || position > mSize) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+    }
+    if (mSize == mValues.length) {
+      grow(mSize + 1);
+    }
+    System.arraycopy(mValues, position, mValues, position + 1, mSize - position);
+    mValues[position] = value;
+    ++mSize;
+  }
+
+  public void addAll(long[] values, int offset, int count) {
+    ensureCapacity(mSize + count);
+    System.arraycopy(values, offset, mValues, mSize, count);
+    mSize += count;
+  }
+
+  public void addAll(LongReadOnlyList values) {
+    int count = values.size();
+    ensureCapacity(mSize + count);
+    for (int i = 0; i < count; ++i) {
+      mValues[mSize++] = values.getLong(i);
+    }
+  }
+
+  /**
+   * @return removed value
+   */
+  public long removeAt(int position) {
+    checkPosition(position);
+    long old = mValues[position];
+    System.arraycopy(mValues, position + 1, mValues, position, mSize - position - 1);
+    --mSize;
+    return old;
+  }
+
+  /**
+   * remove first occurrence of value
+   */
+  public boolean removeValue(long value) {
+    int position = indexOf(value);
+    if (position == -1) {
+      return false;
+    }
+    removeAt(position);
+    return true;
+  }
+
+  public int indexOf(long value) {
+    long[] values = mValues;
+    for (int i = 0; i < mSize; ++i) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public boolean contains(long value) {
+    return indexOf(value) != -1;
+  }
+
+  public void clear() {
+    mSize = 0;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > mValues.length) {
+      grow(capacity);
+    }
+  }
+
+  public void sort() {
+    Arrays.sort(mValues, 0, mSize);
+  }
+
+  /**
+   * on a sorted list
+   * @return position of value, or -(insertion point) - 1
+   */
+  public int binarySearch(long value) {
+    return Arrays.binarySearch(mValues, 0, mSize, value);
+  }
+
+  public void forEach(LongVisitor visitor) {
+    for (int i = 0; i < mSize; ++i) {
+      visitor.visit(mValues[i]);
+    }
+  }
+
+  public long[] toArray() {
+    return Arrays.copyOf(mValues, mSize);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof LongList)) {
+      return false;
+    }
+    LongList other = (LongList) object;
+    if (mSize != other.mSize) {
+      return false;
+    }
+    for (int i = 0; i < mSize; ++i) {
+      if (mValues[i] != other.mValues[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < mSize; ++i) {
+      hash = 31 * hash + (int) (mValues[i] ^ (mValues[i] >>> 32));
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(mSize * 8 + 2).append('[');
+    for (int i = 0; i < mSize; ++i) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(mValues[i]);
+    }
+    return builder.append(']').toString();
+  }
+
+  private void grow(int minCapacity) {
+    int capacity = Math.max(minCapacity, Math.max(8, mValues.length + (mValues.length >> 1)));
+    mValues = Arrays.copyOf(mValues, capacity);
+  }
+
+  private void checkPosition(int position) {
+    if (position < 0 || position >= mSize) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package me.littlekey.base.primitive;
+
+import java.util.Arrays;
+
+/**
+ * open addressing core of {@link LongHashSet} and {@link LongIntMap}, long sibling of
+ * {@link IntTable}: keys in a long[], int values, if any, in a parallel int[].
+ * key 0 marks an empty bucket, subclasses keep the key 0 itself apart.
+ * Created by littlekey on 26/10/18.
+ */
+abstract class LongTable {
+  private final boolean mHasValues;
+  long[] mKeys;
+  // null for a set
+  int[] mValues;
+  private int mMask;
+  // entries in mKeys, without key 0
+  int mCount;
+  private int mThreshold;
+
+  LongTable(int expectedSize, boolean hasValues) {
+    mHasValues = hasValues;
+    allocate(HashMixer.capacityFor(expectedSize));
+  }
+
+  /**
+   * @return bucket of a non zero key, or -1
+   */
+  final int find(long key) {
+    long[] keys = mKeys;
+    int mask = mMask;
+    for (int i = HashMixer.mix(key) & mask; ; i = (i + 1) & mask) {
+      long existing = keys[i];
+      if (existing == 0) {
+        return -1;
+      }
+      if (existing == key) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * single probe for put like updates, an absent key is stored with a zero value
+   * @return bucket of a non zero key, ~bucket if it was absent, then the caller fills the value
+   * and calls {@link #grow()}
+   */
+  final int insert(long key) {
+    long[] keys = mKeys;
+    int mask = mMask;
+    for (int i = HashMixer.mix(key) & mask; ; i = (i + 1) & mask) {
+      long existing = keys[i];
+      if (existing == 0) {
+        keys[i] = key;
+        ++mCount;
+        return ~i;
+      }
+      if (existing == key) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * after an insert is complete, buckets are invalid afterwards
+   */
+  final void grow() {
+    if (mCount > mThreshold) {
+      rehash((mMask + 1) << 1);
+    }
+  }
+
+  final void removeAt(int bucket) {
+    shiftBack(bucket);
+    --mCount;
+  }
+
+  final void clearEntries() {
+    Arrays.fill(mKeys, 0);
+    mCount = 0;
+  }
+
+  final void ensureEntries(int expectedSize) {
+    int capacity = HashMixer.capacityFor(expectedSize);
+    if (capacity > mMask + 1) {
+      rehash(capacity);
+    }
+  }
+
+  // backward shift deletion keeps probe chains intact without tombstones
+  private void shiftBack(int hole) {
+    long[] keys = mKeys;
+    int[] values = mValues;
+    int mask = mMask;
+    int i = hole;
+    while (true) {
+      i = (i + 1) & mask;
+      long key = keys[i];
+      if (key == 0) {
+        break;
+      }
+      int home = HashMixer.mix(key) & mask;
+      // entry at i may move to hole only if its home is not in (hole, i]
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        keys[hole] = key;
+        if (values != null) {
+          values[hole] = values[i];
+        }
+        hole = i;
+      }
+    }
+    keys[hole] = 0;
+    if (values != null) {
+      values[hole] = 0;
+    }
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = mKeys;
+    int[] oldValues = mValues;
+    allocate(capacity);
+    long[] keys = mKeys;
+    int[] values = mValues;
+    int mask = mMask;
+    for (int j = 0; j < oldKeys.length; ++j) {
+      long key = oldKeys[j];
+      if (key != 0) {
+        int i = HashMixer.mix(key) & mask;
+        while (keys[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (values != null) {
+          values[i] = oldValues[j];
+        }
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    mKeys = new long[capacity];
+    mValues = mHasValues ? new int[capacity] : null;
+    mMask = capacity - 1;
+    mThreshold = (int) (capacity * HashMixer.LOAD_FACTOR);
+  }
+}
@@ -0,0 +1,135 @@
+package me.littlekey.base.primitive;
+
+import java.util.Collection;
+
+/**
+ * {@link me.littlekey.base.utils.CollectionUtils} for int / long lists, nothing is boxed.
+ * Created by littlekey on 26/10/18.
+ */
+public class PrimitiveUtils {
+  private PrimitiveUtils() {}
+
+  public static boolean isEmpty(IntReadOnlyList list) {
+    return list == null || list.size() == 0;
+  }
+
+  public static boolean isEmpty(LongReadOnlyList list) {
+    return list == null || list.size() == 0;
+  }
+
+  public static IntList filter(IntReadOnlyList list, IntFilter filter) {
+    IntList result = new IntList();
+    for (int i = 0, size = list.size(); i < size; ++i) {
+      int value = list.getInt(i);
+      if (filter.onFilter(value)) {
+        result.add(value);
+      }
+    }
+    return result;
+  }
+
+  public static LongList filter(LongReadOnlyList list, LongFilter filter) {
+    LongList result = new LongList();
+    for (int i = 0, size = list.size(); i < size; ++i) {
+      long value = list.getLong(i);
+      if (filter.onFilter(value)) {
+        result.add(value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return first occurrences in order
+   */
+  public static IntList distinct(IntReadOnlyList list) {
+    int size = list.size();
+    IntHashSet seen = new IntHashSet(size);
+    IntList result = new IntList(size);
+    for (int i = 0; i < size; ++i) {
+      int value = list.getInt(i);
+      if (seen.add(value)) {
+        result.add(value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return first occurrences in order
+   */
+  public static LongList distinct(LongReadOnlyList list) {
+    int size = list.size();
+    LongHashSet seen = new LongHashSet(size);
+    LongList result = new LongList(size);
+    for (int i = 0; i < size; ++i) {
+      long value = list.getLong(i);
+      if (seen.add(value)) {
+        result.add(value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return value -> position of its first occurrence, -1 for absent values
+   */
+  public static LongIntMap indexOf(LongReadOnlyList list) {
+    int size = list.size();
+    LongIntMap positions = new LongIntMap(size, -1);
+    for (int i = size - 1; i >= 0; --i) {
+      positions.put(list.getLong(i), i);
+    }
+    return positions;
+  }
+
+  public static long sum(IntReadOnlyList list) {
+    long sum = 0;
+    for (int i = 0, size = list.size(); i < size; ++i) {
+      sum += list.getInt(i);
+    }
+    return sum;
+  }
+
+  public static long sum(LongReadOnlyList list) {
+    long sum = 0;
+    for (int i = 0, size = list.size(); i < size; ++i) {
+      sum += list.getLong(i);
+    }
+    return sum;
+  }
+
+  /**
+   * unbox once at the edge, null items are skipped like {@link me.littlekey.base.utils.CollectionUtils#add}
+   */
+  public static IntList toIntList(Collection<Integer> values) {
+    IntList result = new IntList(values.size());
+    for (Integer value : values) {
+      if (value != null) {
+        result.add(value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * unbox once at the edge, null items are skipped
+   */
+  public static LongList toLongList(Collection<Long> values) {
+    LongList result = new LongList(values.size());
+    for (Long value : values) {
+      if (value != null) {
+        result.add(value);
+      }
+    }
+    return result;
+  }
+
+  public interface IntFilter {
+    boolean onFilter(int value);
+  }
+
+  public interface LongFilter {
+    boolean onFilter(long value);
+  }
+}
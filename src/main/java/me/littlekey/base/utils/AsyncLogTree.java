@@ -0,0 +1,357 @@
+package me.littlekey.base.utils;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import timber.log.Timber;
+
+/**
+ * timber tree that hands records to a background thread instead of writing on the caller.
+ * records go into a preallocated bounded MPSC ring (sequence per slot, Vyukov style), one drain
+ * thread takes them out in batches and passes them to a {@link Sink}.
+ * the caller only claims a slot and stores references, nothing is allocated after timber has
+ * built the message. tags are the explicit ones from {@link Timber#tag}, inferring them from a
+ * stack trace like {@link Timber.DebugTree} would cost an allocation per call.
+ * Created by littlekey on 26/10/18.
+ */
+public class AsyncLogTree extends Timber.Tree {
+  /**
+   * full ring drops the record
+   */
+  public static final int OVERFLOW_DROP = 0;
+  /**
+   * full ring parks the caller until there is room, the drain thread itself never blocks
+   */
+  public static final int OVERFLOW_BLOCK = 1;
+  /**
+   * past 3/4 of the ring only 1 in sample rate records below WARN get in, full ring drops
+   */
+  public static final int OVERFLOW_SAMPLE = 2;
+
+  public static final int DEFAULT_CAPACITY = 1024;
+  private static final int BATCH_SIZE = 64;
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final Sink mSink;
+  private final int mMinPriority;
+  private final int mOverflow;
+  private final int mSampleRate;
+  private final int mMask;
+  private final int mHighWater;
+
+  // slot i holds sequence s: s == position free to write, s == position + 1 readable
+  private final AtomicLongArray mSequences;
+  private final long[] mTimes;
+  private final long[] mThreadIds;
+  private final int[] mPriorities;
+  private final String[] mTags;
+  private final String[] mMessages;
+  private final Throwable[] mErrors;
+
+  private final AtomicLong mTail = new AtomicLong();
+  // written by the drain thread only
+  private volatile long mHead;
+  // head as of the last completed Sink#flush
+  private volatile long mFlushed;
+  private final AtomicLong mDropped = new AtomicLong();
+  private final AtomicLong mSampleCounter = new AtomicLong();
+  private final AtomicBoolean mParked = new AtomicBoolean();
+  private volatile boolean mStopped;
+  private volatile LogLimiter mLimiter;
+  private final Thread mDrainThread;
+
+  /**
+   * a sink is only ever called from the drain thread
+   */
+  public interface Sink {
+    /**
+     * @param tag null if none was given
+     * @param message as built by timber, stack trace of t included
+     */
+    void write(long timeMillis, long threadId, int priority, String tag, String message,
+               Throwable t);
+
+    /**
+     * end of a batch, the ring is empty for now
+     */
+    void flush();
+  }
+
+  public AsyncLogTree(Sink sink) {
+    this(sink, Log.VERBOSE, DEFAULT_CAPACITY, OVERFLOW_DROP, 1);
+  }
+
+  /**
+   * @param capacity rounded up to a power of two
+   * @param overflow {@link #OVERFLOW_DROP}, {@link #OVERFLOW_BLOCK} or {@link #OVERFLOW_SAMPLE}
+   * @param sampleRate keep 1 in sampleRate for {@link #OVERFLOW_SAMPLE}
+   */
+  public AsyncLogTree(Sink sink, int minPriority, int capacity, int overflow, int sampleRate) {
+    if (capacity < 2 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity: " + capacity);
+    }
+    if (overflow < OVERFLOW_DROP || overflow > OVERFLOW_SAMPLE) {
+      throw new IllegalArgumentException("overflow: " + overflow);
+    }
+    if (sampleRate < 1) {
+      throw new IllegalArgumentException("sampleRate: " + sampleRate);
+    }
+    mSink = sink;
+    mMinPriority = minPriority;
+    mOverflow = overflow;
+    mSampleRate = sampleRate;
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    mMask = size - 1;
+    mHighWater = size - (size >> 2);
+    mSequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      mSequences.set(i, i);
+    }
+    mTimes = new long[size];
+    mThreadIds = new long[size];
+    mPriorities = new int[size];
+    mTags = new String[size];
+    mMessages = new String[size];
+    mErrors = new Throwable[size];
+    mDrainThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drainLoop();
+      }
+    }, "AsyncLogTree");
+    mDrainThread.setDaemon(true);
+    mDrainThread.setPriority(Thread.MIN_PRIORITY);
+    mDrainThread.start();
+  }
+
+  /**
+   * drop records limiter denies for their explicit tag before timber formats them, untagged
+   * records and ERROR and up always pass, null for none. its suppressed counts are reported from
+   * the drain thread. for a tree of its own, trees planted by {@link LogUtils} share
+   * {@link LogUtils#setTagLimiter} instead
+   */
+  public void setLimiter(LogLimiter limiter) {
+    mLimiter = limiter;
+  }
+
+  /**
+   * records lost to overflow so far, the drain thread also reports them to the sink
+   */
+  public long getDroppedCount() {
+    return mDropped.get();
+  }
+
+  @Override
+  protected boolean isLoggable(String tag, int priority) {
+    if (priority < mMinPriority || mStopped) {
+      return false;
+    }
+    LogLimiter limiter = mLimiter;
+    return limiter == null || limiter.allowsTag(tag, priority);
+  }
+
+  @Override
+  protected void log(int priority, String tag, String message, Throwable t) {
+    if (priority < mMinPriority || mStopped) {
+      return;
+    }
+    long position = claim(priority);
+    if (position < 0) {
+      mDropped.incrementAndGet();
+      return;
+    }
+    int index = (int) position & mMask;
+    Thread thread = Thread.currentThread();
+    mTimes[index] = System.currentTimeMillis();
+    mThreadIds[index] = thread.getId();
+    mPriorities[index] = priority;
+    mTags[index] = tag;
+    mMessages[index] = message;
+    mErrors[index] = t;
+    // publishes the fields above to the drain thread
+    mSequences.lazySet(index, position + 1);
+    if (priority >= Log.WARN || position - mHead >= BATCH_SIZE) {
+      wakeDrain();
+    }
+  }
+
+  /**
+   * block until everything logged before this call went through {@link Sink#flush}, or timeout
+   * @return false on timeout
+   */
+  public boolean flush(long timeoutMillis) {
+    long target = mTail.get();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (mFlushed < target) {
+      if (Thread.currentThread() == mDrainThread || !mDrainThread.isAlive()
+          || System.nanoTime() >= deadline) {
+        return false;
+      }
+      wakeDrain();
+      LockSupport.parkNanos(BLOCK_PARK_NANOS);
+    }
+    return true;
+  }
+
+  /**
+   * flush for up to timeoutMillis when a thread dies of an uncaught exception, before the
+   * previous handler runs, so the last records before a crash are not lost
+   */
+  public void installCrashFlush(final long timeoutMillis) {
+    final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+    Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+      @Override
+      public void uncaughtException(Thread thread, Throwable e) {
+        try {
+          flush(timeoutMillis);
+        } finally {
+          if (previous != null) {
+            previous.uncaughtException(thread, e);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * stop accepting records, drain what is left and end the drain thread
+   */
+  public void shutdown(long timeoutMillis) {
+    flush(timeoutMillis);
+    mStopped = true;
+    LockSupport.unpark(mDrainThread);
+  }
+
+  // position of a claimed slot, or -1 if the record is dropped
+  private long claim(int priority) {
+    boolean blocking = mOverflow == OVERFLOW_BLOCK && Thread.currentThread() != mDrainThread;
+    while (true) {
+      long position = mTail.get();
+      int index = (int) position & mMask;
+      long diff = mSequences.get(index) - position;
+      if (diff == 0) {
+        if (mOverflow == OVERFLOW_SAMPLE && priority < Log.WARN
+            && position - mHead >= mHighWater
+            && mSampleCounter.getAndIncrement() % mSampleRate != 0) {
+          return -1;
+        }
+        if (mTail.compareAndSet(position, position + 1)) {
+          return position;
+        }
+      } else if (diff < 0) {
+        // slot still holds the record of the previous lap, ring is full
+        if (!blocking || mStopped || !mDrainThread.isAlive()) {
+          return -1;
+        }
+        wakeDrain();
+        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+      }
+    }
+  }
+
+  private void wakeDrain() {
+    if (mParked.get() && mParked.compareAndSet(true, false)) {
+      LockSupport.unpark(mDrainThread);
+    }
+  }
+
+  private void drainLoop() {
+    long reportedDrops = 0;
+    while (true) {
+      int drained = drainBatch();
+      long dropped = mDropped.get();
+      if (dropped != reportedDrops) {
+        mSink.write(System.currentTimeMillis(), mDrainThread.getId(), Log.WARN,
+            "AsyncLogTree", (dropped - reportedDrops) + " log records dropped", null);
+        reportedDrops = dropped;
+      }
+      if (mLimiter != null) {
+        // off the callers, the summary comes back through timber like any record
+        LogLimiter.maybeReportSuppressed();
+      }
+      if (drained == BATCH_SIZE) {
+        continue;
+      }
+      long head = mHead;
+      try {
+        mSink.flush();
+      } catch (RuntimeException e) {
+        // same as in drainBatch
+      }
+      mFlushed = head;
+      if (mStopped && mHead == mTail.get()) {
+        return;
+      }
+      mParked.set(true);
+      // a record published after the batch but before the flag was set would sleep otherwise
+      if (mSequences.get((int) mHead & mMask) == mHead + 1) {
+        mParked.set(false);
+        continue;
+      }
+      LockSupport.parkNanos(IDLE_PARK_NANOS);
+      mParked.set(false);
+    }
+  }
+
+  private int drainBatch() {
+    long head = mHead;
+    int drained = 0;
+    for (; drained < BATCH_SIZE; ++drained) {
+      int index = (int) head & mMask;
+      if (mSequences.get(index) != head + 1) {
+        break;
+      }
+      String tag = mTags[index];
+      String message = mMessages[index];
+      Throwable t = mErrors[index];
+      mTags[index] = null;
+      mMessages[index] = null;
+      mErrors[index] = null;
+      try {
+        mSink.write(mTimes[index], mThreadIds[index], mPriorities[index], tag, message, t);
+      } catch (RuntimeException e) {
+        // a broken sink must not kill the drain thread and stall every caller
+      }
+      // hand the slot to the next lap
+      mSequences.lazySet(index, head + mMask + 1);
+      mHead = ++head;
+    }
+    return drained;
+  }
+
+  /**
+   * writes to logcat, long messages are split like {@link Timber.DebugTree} does
+   */
+  public static class LogcatSink implements Sink {
+    private static final int MAX_LOG_LENGTH = 4000;
+    private final String mDefaultTag;
+
+    public LogcatSink(String defaultTag) {
+      mDefaultTag = defaultTag;
+    }
+
+    @Override
+    public void write(long timeMillis, long threadId, int priority, String tag, String message,
+                      Throwable t) {
+      if (tag == null) {
+        tag = mDefaultTag;
+      }
+      if (message.length() <= MAX_LOG_LENGTH) {
+        Log.println(priority, tag, message);
+        return;
+      }
+      for (int start = 0, length = message.length(); start < length; start += MAX_LOG_LENGTH) {
+        Log.println(priority, tag, message.substring(start, Math.min(length, start + MAX_LOG_LENGTH)));
+      }
+    }
+
+    @Override
+    public void flush() {}
+  }
+}
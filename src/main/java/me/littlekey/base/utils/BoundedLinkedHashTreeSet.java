@@ -0,0 +1,268 @@
+package me.littlekey.base.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * capacity bounded {@link LinkedHashTreeSet}, evicts after every add until both the item count
+ * and the total weight fit again, not thread safe.
+ * <ul>
+ *   <li>{@link Policy#FIFO} evicts from position 0, append new items at the end.
+ *   with {@link LinkedHashTreeSet.Ordering#ARRAY} removing the front is O(1)</li>
+ *   <li>{@link Policy#LRU} evicts the least recently added or accessed item, access is
+ *   {@link #get}, {@link #contains} or adding it again, tracked by an int[] linked list over
+ *   slots. the victim sits anywhere in position order, so LRU always uses
+ *   {@link LinkedHashTreeSet.Ordering#TREE}: one victim is O(log n) to locate and remove
+ *   instead of an O(n) search and shift, several at once go in one O(n) compaction</li>
+ * </ul>
+ * a {@link Weigher} bounds the sum of item weights instead of, or on top of, the count.
+ * {@link #contains} stays O(1), victims are found in O(1) each.
+ * Created by littlekey on 26/10/18.
+ */
+public class BoundedLinkedHashTreeSet<V> extends LinkedHashTreeSet<V> {
+  private static final int NIL = -1;
+
+  public enum Policy {
+    FIFO,
+    LRU
+  }
+
+  public interface Weigher<V> {
+    /**
+     * @return weight of value, >= 0, must not change while value is in the set
+     */
+    int weigh(V value);
+  }
+
+  public interface EvictionListener<V> {
+    /**
+     * called after value left the set, the set is consistent again
+     */
+    void onEvicted(V value);
+  }
+
+  private final int mCapacity;
+  private final long mMaxWeight;
+  private final Policy mPolicy;
+  private final Weigher<? super V> mWeigher;
+  private EvictionListener<? super V> mListener;
+  // slot -> weight, only with a weigher
+  private int[] mWeights;
+  private long mTotalWeight;
+  // slot -> lru neighbours, head is the eldest, only for LRU
+  private int[] mPrev;
+  private int[] mNext;
+  private int mLruHead = NIL;
+  private int mLruTail = NIL;
+
+  public BoundedLinkedHashTreeSet(int capacity, Policy policy) {
+    this(capacity, policy, Ordering.ARRAY);
+  }
+
+  public BoundedLinkedHashTreeSet(int capacity, Policy policy, Ordering ordering) {
+    this(capacity, Long.MAX_VALUE, null, policy, ordering);
+  }
+
+  /**
+   * bounded by weight only
+   */
+  public BoundedLinkedHashTreeSet(long maxWeight, Weigher<? super V> weigher,
+                                  Policy policy, Ordering ordering) {
+    this(Integer.MAX_VALUE, maxWeight, weigher, policy, ordering);
+  }
+
+  /**
+   * @param ordering ignored for {@link Policy#LRU}, which needs {@link Ordering#TREE}
+   */
+  public BoundedLinkedHashTreeSet(int capacity, long maxWeight, Weigher<? super V> weigher,
+                                  Policy policy, Ordering ordering) {
+    super(policy == Policy.LRU ? Ordering.TREE : ordering);
+    if (capacity <= 0 || maxWeight <= 0) {
+      throw new IllegalArgumentException("capacity: " + capacity + ", maxWeight: " + maxWeight);
+    }
+    if (maxWeight != Long.MAX_VALUE && weigher == null) {
+      throw new IllegalArgumentException("maxWeight needs a weigher");
+    }
+    mCapacity = capacity;
+    mMaxWeight = maxWeight;
+    mWeigher = weigher;
+    mPolicy = policy;
+    int slots = slotCapacity();
+    if (weigher != null) {
+      mWeights = new int[slots];
+    }
+    if (policy == Policy.LRU) {
+      mPrev = new int[slots];
+      mNext = new int[slots];
+    }
+  }
+
+  public void setEvictionListener(EvictionListener<? super V> listener) {
+    mListener = listener;
+  }
+
+  public int getCapacity() {
+    return mCapacity;
+  }
+
+  public long getTotalWeight() {
+    return mTotalWeight;
+  }
+
+  @Override
+  public boolean add(V value) {
+    boolean result = super.add(value);
+    trim();
+    return result;
+  }
+
+  @Override
+  public void add(int position, V value) {
+    super.add(position, value);
+    trim();
+  }
+
+  @Override
+  public boolean addAll(@NonNull Collection<? extends V> list) {
+    boolean result = super.addAll(list);
+    trim();
+    return result;
+  }
+
+  @Override
+  public boolean addAll(int position, @NonNull Collection<? extends V> list) {
+    boolean result = super.addAll(position, list);
+    trim();
+    return result;
+  }
+
+  @Override
+  public V set(int position, V value) {
+    V old = super.set(position, value);
+    trim();
+    return old;
+  }
+
+  @Override
+  void onSlotAdded(int slot) {
+    ensureSlots();
+    if (mWeigher != null) {
+      @SuppressWarnings("unchecked")
+      int weight = mWeigher.weigh((V) valueAt(slot));
+      mWeights[slot] = weight;
+      mTotalWeight += weight;
+    }
+    if (mPolicy == Policy.LRU) {
+      linkLast(slot);
+    }
+  }
+
+  @Override
+  void onSlotRemoved(int slot, Object value) {
+    if (mWeigher != null) {
+      mTotalWeight -= mWeights[slot];
+    }
+    if (mPolicy == Policy.LRU) {
+      unlink(slot);
+    }
+  }
+
+  @Override
+  void onSlotAccessed(int slot) {
+    if (mPolicy == Policy.LRU && slot != mLruTail) {
+      unlink(slot);
+      linkLast(slot);
+    }
+  }
+
+  @Override
+  void onCleared() {
+    mTotalWeight = 0;
+    mLruHead = NIL;
+    mLruTail = NIL;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void trim() {
+    if (size() <= mCapacity && mTotalWeight <= mMaxWeight) {
+      return;
+    }
+    if (mPolicy == Policy.FIFO) {
+      while (size() > mCapacity || mTotalWeight > mMaxWeight) {
+        notifyEvicted(remove(0));
+      }
+      return;
+    }
+    // LRU: count victims from the eldest first, then drop them together
+    int count = 0;
+    long weight = mTotalWeight;
+    int last = NIL;
+    for (int slot = mLruHead; slot != NIL && (size() - count > mCapacity || weight > mMaxWeight);
+        slot = mNext[slot]) {
+      if (mWeigher != null) {
+        weight -= mWeights[slot];
+      }
+      last = slot;
+      ++count;
+    }
+    if (count == 1) {
+      notifyEvicted(remove(positionOfSlot(last)));
+      return;
+    }
+    Object[] victims = new Object[count];
+    boolean[] marked = new boolean[slotCapacity()];
+    for (int i = 0, slot = mLruHead; i < count; ++i, slot = mNext[slot]) {
+      victims[i] = valueAt(slot);
+      marked[slot] = true;
+    }
+    removeSlots(marked, true);
+    for (Object victim : victims) {
+      notifyEvicted((V) victim);
+    }
+  }
+
+  private void notifyEvicted(V value) {
+    if (mListener != null) {
+      mListener.onEvicted(value);
+    }
+  }
+
+  private void ensureSlots() {
+    int slots = slotCapacity();
+    if (mWeights != null && mWeights.length < slots) {
+      mWeights = Arrays.copyOf(mWeights, slots);
+    }
+    if (mPrev != null && mPrev.length < slots) {
+      mPrev = Arrays.copyOf(mPrev, slots);
+      mNext = Arrays.copyOf(mNext, slots);
+    }
+  }
+
+  private void linkLast(int slot) {
+    mPrev[slot] = mLruTail;
+    mNext[slot] = NIL;
+    if (mLruTail == NIL) {
+      mLruHead = slot;
+    } else {
+      mNext[mLruTail] = slot;
+    }
+    mLruTail = slot;
+  }
+
+  private void unlink(int slot) {
+    int prev = mPrev[slot];
+    int next = mNext[slot];
+    if (prev == NIL) {
+      mLruHead = next;
+    } else {
+      mNext[prev] = next;
+    }
+    if (next == NIL) {
+      mLruTail = prev;
+    } else {
+      mPrev[next] = prev;
+    }
+  }
+}
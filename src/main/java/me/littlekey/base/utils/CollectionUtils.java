@@ -1,14 +1,53 @@
 package me.littlekey.base.utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.littlekey.base.ReadOnlyList;
 
 /**
  * Created by nengxiangzhou on 15/5/9.
  */
 public class CollectionUtils {
+  /**
+   * default {@link #setParallelThreshold}, the parallel variants always run sequentially
+   */
+  public static final int PARALLEL_DISABLED = Integer.MAX_VALUE;
+  // chunks per worker, evens out uneven callbacks and busy pool threads
+  private static final int CHUNKS_PER_WORKER = 4;
+
+  private static volatile int sParallelThreshold = PARALLEL_DISABLED;
+
   private CollectionUtils() {}
 
+  /**
+   * parallel variants split lists of at least threshold items, smaller ones run sequentially
+   * on the calling thread. off until set: no device measurement backs a default yet, run
+   * CollectionUtilsBenchmark on the target and use the size where parallel starts to win
+   * @param threshold items, {@link #PARALLEL_DISABLED} to turn it off again
+   */
+  public static void setParallelThreshold(int threshold) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("threshold: " + threshold);
+    }
+    sParallelThreshold = threshold;
+  }
+
+  public static int getParallelThreshold() {
+    return sParallelThreshold;
+  }
+
   public static <T> boolean isEmpty(Collection<T> collection) {
     return collection == null || collection.isEmpty();
   }
@@ -29,15 +68,504 @@ public class CollectionUtils {
     Collection<T> newCol = new ArrayList<>();
     if (callback != null) {
       for (T item : collection) {
-        if (callback.onFilter(item)) {
-          add(newCol, item);
+        if (callback.onFilter(item) && item != null) {
+          newCol.add(item);
         }
       }
     }
     return newCol;
   }
 
+  /**
+   * lazy pipeline over source, nothing runs until a terminal call like {@link Pipeline#into}.
+   * all stages are fused into one pass over source without intermediate collections,
+   * {@link Pipeline#limit} and {@link Pipeline#first} stop the pass early.
+   * <pre>
+   *   CollectionUtils.from(feeds).filter(visible).map(toId).distinct().limit(20).into(ids);
+   * </pre>
+   */
+  public static <T> Pipeline<T> from(Iterable<? extends T> source) {
+    return new Pipeline<>(source, null, null);
+  }
+
+  /**
+   * parallel {@link #filter} of a {@link RandomAccess} list, keeps encounter order and, like it,
+   * drops null items even if callback accepts them.
+   * the list is split in chunks that run on executor and on the calling thread, which also
+   * takes the chunks no pool thread got to, so a busy or saturated pool never deadlocks.
+   * callbacks must be thread safe. lists below {@link #getParallelThreshold}, by default all of
+   * them, or without {@link RandomAccess} run sequentially.
+   * @param parallelism workers to use, including the calling thread
+   */
+  public static <T> List<T> parallelFilter(List<T> list, FilterCallback<? super T> callback,
+                                           Executor executor, int parallelism) {
+    return parallelFilter(asReadOnly(list), callback, executor, parallelism);
+  }
+
+  public static <T> List<T> parallelFilter(final ReadOnlyList<T> list,
+                                           final FilterCallback<? super T> callback,
+                                           Executor executor, int parallelism) {
+    Object[] chunks = runChunks(list.size(), executor, parallelism, new ChunkTask() {
+      @Override
+      Object run(int start, int end) {
+        List<T> result = new ArrayList<>();
+        for (int i = start; i < end; ++i) {
+          T item = list.getItem(i);
+          if (callback.onFilter(item) && item != null) {
+            result.add(item);
+          }
+        }
+        return result;
+      }
+    });
+    return concat(chunks, -1);
+  }
+
+  /**
+   * parallel map, result in encounter order, see {@link #parallelFilter(List, FilterCallback, Executor, int)}
+   * @return fixed size list over the one result array
+   */
+  public static <T, R> List<R> parallelMap(List<T> list, MapCallback<? super T, ? extends R> callback,
+                                           Executor executor, int parallelism) {
+    return parallelMap(asReadOnly(list), callback, executor, parallelism);
+  }
+
+  public static <T, R> List<R> parallelMap(final ReadOnlyList<T> list,
+                                           final MapCallback<? super T, ? extends R> callback,
+                                           Executor executor, int parallelism) {
+    final Object[] result = new Object[list.size()];
+    runChunks(list.size(), executor, parallelism, new ChunkTask() {
+      @Override
+      Object run(int start, int end) {
+        for (int i = start; i < end; ++i) {
+          result[i] = callback.onMap(list.getItem(i));
+        }
+        return null;
+      }
+    });
+    @SuppressWarnings("unchecked")
+    List<R> mapped = (List<R>) Arrays.asList(result);
+    return mapped;
+  }
+
+  /**
+   * parallel partition, both sides in encounter order,
+   * see {@link #parallelFilter(List, FilterCallback, Executor, int)}
+   * @return {@link Boolean#TRUE} -> matching items, {@link Boolean#FALSE} -> the rest
+   */
+  public static <T> Map<Boolean, List<T>> parallelPartition(List<T> list,
+                                                           FilterCallback<? super T> callback,
+                                                           Executor executor, int parallelism) {
+    return parallelPartition(asReadOnly(list), callback, executor, parallelism);
+  }
+
+  public static <T> Map<Boolean, List<T>> parallelPartition(final ReadOnlyList<T> list,
+                                                           final FilterCallback<? super T> callback,
+                                                           Executor executor, int parallelism) {
+    Object[] chunks = runChunks(list.size(), executor, parallelism, new ChunkTask() {
+      @Override
+      Object run(int start, int end) {
+        List<T> matching = new ArrayList<>();
+        List<T> rest = new ArrayList<>();
+        for (int i = start; i < end; ++i) {
+          T item = list.getItem(i);
+          (callback.onFilter(item) ? matching : rest).add(item);
+        }
+        return new Object[] {matching, rest};
+      }
+    });
+    Map<Boolean, List<T>> result = new LinkedHashMap<>(4);
+    result.put(Boolean.TRUE, CollectionUtils.<T>concat(chunks, 0));
+    result.put(Boolean.FALSE, CollectionUtils.<T>concat(chunks, 1));
+    return result;
+  }
+
+  /**
+   * parallel group by key, keys in order of first occurrence, items of a group in encounter
+   * order, see {@link #parallelFilter(List, FilterCallback, Executor, int)}
+   */
+  public static <T, K> Map<K, List<T>> parallelGroupBy(List<T> list,
+                                                       MapCallback<? super T, ? extends K> keyOf,
+                                                       Executor executor, int parallelism) {
+    return parallelGroupBy(asReadOnly(list), keyOf, executor, parallelism);
+  }
+
+  public static <T, K> Map<K, List<T>> parallelGroupBy(final ReadOnlyList<T> list,
+                                                       final MapCallback<? super T, ? extends K> keyOf,
+                                                       Executor executor, int parallelism) {
+    Object[] chunks = runChunks(list.size(), executor, parallelism, new ChunkTask() {
+      @Override
+      Object run(int start, int end) {
+        Map<K, List<T>> groups = new LinkedHashMap<>();
+        for (int i = start; i < end; ++i) {
+          T item = list.getItem(i);
+          K key = keyOf.onMap(item);
+          List<T> group = groups.get(key);
+          if (group == null) {
+            group = new ArrayList<>();
+            groups.put(key, group);
+          }
+          group.add(item);
+        }
+        return groups;
+      }
+    });
+    @SuppressWarnings("unchecked")
+    Map<K, List<T>> result = (Map<K, List<T>>) chunks[0];
+    for (int i = 1; i < chunks.length; ++i) {
+      @SuppressWarnings("unchecked")
+      Map<K, List<T>> chunk = (Map<K, List<T>>) chunks[i];
+      for (Map.Entry<K, List<T>> entry : chunk.entrySet()) {
+        List<T> group = result.get(entry.getKey());
+        if (group == null) {
+          result.put(entry.getKey(), entry.getValue());
+        } else {
+          group.addAll(entry.getValue());
+        }
+      }
+    }
+    return result;
+  }
+
   public interface FilterCallback<T> {
     boolean onFilter(T item);
   }
+
+  public interface MapCallback<T, R> {
+    R onMap(T item);
+  }
+
+  /**
+   * immutable, every stage returns a new pipeline so a prefix can be shared and run again
+   */
+  public static final class Pipeline<T> {
+    private final Iterable<?> mSource;
+    private final Pipeline<?> mUpstream;
+    private final Stage mStage;
+
+    private Pipeline(Iterable<?> source, Pipeline<?> upstream, Stage stage) {
+      mSource = source;
+      mUpstream = upstream;
+      mStage = stage;
+    }
+
+    public Pipeline<T> filter(final FilterCallback<? super T> callback) {
+      return then(new Stage() {
+        @Override
+        Sink wrap(final Sink downstream) {
+          return new Sink() {
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean accept(Object item) {
+              return !callback.onFilter((T) item) || downstream.accept(item);
+            }
+          };
+        }
+      });
+    }
+
+    public <R> Pipeline<R> map(final MapCallback<? super T, ? extends R> callback) {
+      return then(new Stage() {
+        @Override
+        Sink wrap(final Sink downstream) {
+          return new Sink() {
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean accept(Object item) {
+              return downstream.accept(callback.onMap((T) item));
+            }
+          };
+        }
+      });
+    }
+
+    /**
+     * drop null items, same as the null check of {@link CollectionUtils#add}
+     */
+    public Pipeline<T> nonNull() {
+      return then(new Stage() {
+        @Override
+        Sink wrap(final Sink downstream) {
+          return new Sink() {
+            @Override
+            boolean accept(Object item) {
+              return item == null || downstream.accept(item);
+            }
+          };
+        }
+      });
+    }
+
+    /**
+     * by {@link Object#equals}, first occurrence wins
+     */
+    public Pipeline<T> distinct() {
+      return then(new Stage() {
+        @Override
+        Sink wrap(final Sink downstream) {
+          final Set<Object> seen = new HashSet<>();
+          return new Sink() {
+            @Override
+            boolean accept(Object item) {
+              return !seen.add(item) || downstream.accept(item);
+            }
+          };
+        }
+      });
+    }
+
+    /**
+     * at most count items, the pass stops as soon as they are through
+     */
+    public Pipeline<T> limit(final int count) {
+      if (count < 0) {
+        throw new IllegalArgumentException("count: " + count);
+      }
+      return then(new Stage() {
+        @Override
+        Sink wrap(final Sink downstream) {
+          return new Sink() {
+            private int mPassed;
+
+            @Override
+            boolean accept(Object item) {
+              if (mPassed >= count) {
+                return false;
+              }
+              ++mPassed;
+              return downstream.accept(item) && mPassed < count;
+            }
+          };
+        }
+      });
+    }
+
+    /**
+     * run the pipeline into an existing collection
+     * @return target
+     */
+    public <C extends Collection<? super T>> C into(final C target) {
+      run(new Sink() {
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean accept(Object item) {
+          target.add((T) item);
+          return true;
+        }
+      });
+      return target;
+    }
+
+    public List<T> toList() {
+      return into(new ArrayList<T>());
+    }
+
+    /**
+     * @return first item through the pipeline, or null, stops after it
+     */
+    @SuppressWarnings("unchecked")
+    public T first() {
+      final Object[] result = new Object[1];
+      run(new Sink() {
+        @Override
+        boolean accept(Object item) {
+          result[0] = item;
+          return false;
+        }
+      });
+      return (T) result[0];
+    }
+
+    public boolean any(final FilterCallback<? super T> callback) {
+      final boolean[] result = new boolean[1];
+      run(new Sink() {
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean accept(Object item) {
+          result[0] = callback.onFilter((T) item);
+          return !result[0];
+        }
+      });
+      return result[0];
+    }
+
+    public int count() {
+      final int[] result = new int[1];
+      run(new Sink() {
+        @Override
+        boolean accept(Object item) {
+          ++result[0];
+          return true;
+        }
+      });
+      return result[0];
+    }
+
+    private <R> Pipeline<R> then(Stage stage) {
+      return new Pipeline<>(null, this, stage);
+    }
+
+    // chain the sinks from the terminal back to the source, then one pass
+    private void run(Sink terminal) {
+      Sink head = terminal;
+      Pipeline<?> pipeline = this;
+      for (; pipeline.mUpstream != null; pipeline = pipeline.mUpstream) {
+        head = pipeline.mStage.wrap(head);
+      }
+      for (Object item : pipeline.mSource) {
+        if (!head.accept(item)) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static <T> ReadOnlyList<T> asReadOnly(final List<T> list) {
+    if (list instanceof ReadOnlyList) {
+      @SuppressWarnings("unchecked")
+      ReadOnlyList<T> readOnly = (ReadOnlyList<T>) list;
+      return readOnly;
+    }
+    if (!(list instanceof RandomAccess)) {
+      // one sequential chunk below the threshold would still walk a linked list by index
+      return asReadOnly(new ArrayList<>(list));
+    }
+    return new ReadOnlyList<T>() {
+      @Override
+      public T getItem(int position) {
+        return list.get(position);
+      }
+
+      @Override
+      public int size() {
+        return list.size();
+      }
+    };
+  }
+
+  /**
+   * @param side -1 when chunks are lists, else index into the Object[] of each chunk
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> concat(Object[] chunks, int side) {
+    List<List<T>> lists = new ArrayList<>(chunks.length);
+    int size = 0;
+    for (Object chunk : chunks) {
+      List<T> list = (List<T>) (side < 0 ? chunk : ((Object[]) chunk)[side]);
+      lists.add(list);
+      size += list.size();
+    }
+    if (lists.size() == 1) {
+      return lists.get(0);
+    }
+    List<T> result = new ArrayList<>(size);
+    for (List<T> list : lists) {
+      result.addAll(list);
+    }
+    return result;
+  }
+
+  /**
+   * split [0, size) into chunks and run them on executor plus the calling thread
+   * @return result of every chunk in order
+   */
+  private static Object[] runChunks(int size, Executor executor, int parallelism, ChunkTask task) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism: " + parallelism);
+    }
+    int threshold = sParallelThreshold;
+    int chunks = size < threshold || parallelism == 1 ? 1
+        : Math.min(parallelism * CHUNKS_PER_WORKER, size / Math.max(1, threshold / CHUNKS_PER_WORKER));
+    task.start(size, chunks);
+    if (chunks > 1) {
+      for (int i = 1; i < parallelism; ++i) {
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          // the calling thread picks up the chunks
+          break;
+        }
+      }
+    }
+    task.run();
+    task.await();
+    return task.mResults;
+  }
+
+  /**
+   * chunks are claimed from a shared counter, by pool threads and the calling thread alike
+   */
+  private abstract static class ChunkTask implements Runnable {
+    private final AtomicInteger mNext = new AtomicInteger();
+    private int mSize;
+    private int mChunks;
+    private CountDownLatch mDone;
+    private volatile Throwable mError;
+    Object[] mResults;
+
+    abstract Object run(int start, int end);
+
+    void start(int size, int chunks) {
+      mSize = size;
+      mChunks = chunks;
+      mResults = new Object[chunks];
+      mDone = new CountDownLatch(chunks);
+    }
+
+    @Override
+    public void run() {
+      int chunk;
+      while ((chunk = mNext.getAndIncrement()) < mChunks) {
+        try {
+          if (mError == null) {
+            // long math, size * chunk may overflow int
+            int start = (int) ((long) mSize * chunk / mChunks);
+            int end = (int) ((long) mSize * (chunk + 1) / mChunks);
+            mResults[chunk] = run(start, end);
+          }
+        } catch (Throwable e) {
+          mError = e;
+        } finally {
+          mDone.countDown();
+        }
+      }
+    }
+
+    void await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          mDone.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      // latch happens before, results and error of every chunk are visible here
+      Throwable error = mError;
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error instanceof Error) {
+        throw (Error) error;
+      }
+      if (error != null) {
+        throw new RuntimeException(error);
+      }
+    }
+  }
+
+  private abstract static class Stage {
+    abstract Sink wrap(Sink downstream);
+  }
+
+  private abstract static class Sink {
+    /**
+     * @return false to stop the pass
+     */
+    abstract boolean accept(Object item);
+  }
 }
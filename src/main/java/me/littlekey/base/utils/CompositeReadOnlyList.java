@@ -0,0 +1,212 @@
+package me.littlekey.base.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.littlekey.base.ReadOnlyList;
+
+/**
+ * sections (header, feed, footer...) concatenated into one {@link ReadOnlyList}, not thread safe.
+ * <p>
+ * section sizes are cached in a Fenwick tree, so with k sections a position resolves to its
+ * section in O(log k) and a section growing or shrinking costs O(log k), nothing is walked.
+ * a section reports its own changes through {@link #notifyInserted} and friends, which update
+ * the cached size and forward them with global positions to the {@link LinkedHashTreeSetDiff.Callback}
+ * (e.g. the adapter's notifyItemRangeXxx).
+ * <p>
+ * a section must not change its size without notifying, or positions after it shift silently.
+ * Created by littlekey on 26/10/18.
+ */
+public class CompositeReadOnlyList<T> implements ReadOnlyList<T> {
+  private final List<ReadOnlyList<? extends T>> mSections = new ArrayList<>();
+  // cached section sizes, and the 1-based Fenwick tree over them
+  private int[] mSizes = new int[0];
+  private int[] mTree = new int[1];
+  private int mSize;
+  private LinkedHashTreeSetDiff.Callback mCallback;
+
+  public void setCallback(LinkedHashTreeSetDiff.Callback callback) {
+    mCallback = callback;
+  }
+
+  public int getSectionCount() {
+    return mSections.size();
+  }
+
+  public ReadOnlyList<? extends T> getSection(int section) {
+    return mSections.get(section);
+  }
+
+  public void addSection(ReadOnlyList<? extends T> section) {
+    addSection(mSections.size(), section);
+  }
+
+  /**
+   * O(k), items of the section are reported as inserted
+   */
+  public void addSection(int index, ReadOnlyList<? extends T> section) {
+    mSections.add(index, section);
+    int count = section.size();
+    mSizes = Arrays.copyOf(mSizes, mSections.size());
+    System.arraycopy(mSizes, index, mSizes, index + 1, mSizes.length - index - 1);
+    mSizes[index] = count;
+    rebuild();
+    if (count > 0 && mCallback != null) {
+      mCallback.onInserted(startOf(index), count);
+    }
+  }
+
+  /**
+   * O(k), items of the section are reported as removed
+   */
+  public ReadOnlyList<? extends T> removeSection(int index) {
+    int start = startOf(index);
+    int count = mSizes[index];
+    ReadOnlyList<? extends T> section = mSections.remove(index);
+    System.arraycopy(mSizes, index + 1, mSizes, index, mSizes.length - index - 1);
+    mSizes = Arrays.copyOf(mSizes, mSections.size());
+    rebuild();
+    if (count > 0 && mCallback != null) {
+      mCallback.onRemoved(start, count);
+    }
+    return section;
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  @Override
+  public T getItem(int position) {
+    long found = find(position);
+    return mSections.get((int) (found >>> 32)).getItem((int) found);
+  }
+
+  /**
+   * O(log k)
+   */
+  public int sectionOf(int position) {
+    return (int) (find(position) >>> 32);
+  }
+
+  /**
+   * O(log k)
+   * @return position inside its section
+   */
+  public int localPosition(int position) {
+    return (int) find(position);
+  }
+
+  /**
+   * O(log k)
+   * @return global position of the section's first item, even when the section is empty
+   */
+  public int startOf(int section) {
+    if (section < 0 || section > mSections.size()) {
+      throw new IndexOutOfBoundsException("section: " + section + ", count: " + mSections.size());
+    }
+    int sum = 0;
+    for (int i = section; i > 0; i -= i & -i) {
+      sum += mTree[i];
+    }
+    return sum;
+  }
+
+  public int globalPosition(int section, int localPosition) {
+    return startOf(section) + localPosition;
+  }
+
+  /**
+   * section inserted count items at localPosition
+   */
+  public void notifyInserted(int section, int localPosition, int count) {
+    resize(section, count);
+    if (mCallback != null) {
+      mCallback.onInserted(startOf(section) + localPosition, count);
+    }
+  }
+
+  /**
+   * section removed count items at localPosition
+   */
+  public void notifyRemoved(int section, int localPosition, int count) {
+    resize(section, -count);
+    if (mCallback != null) {
+      mCallback.onRemoved(startOf(section) + localPosition, count);
+    }
+  }
+
+  public void notifyMoved(int section, int fromLocalPosition, int toLocalPosition) {
+    if (mCallback != null) {
+      int start = startOf(section);
+      mCallback.onMoved(start + fromLocalPosition, start + toLocalPosition);
+    }
+  }
+
+  public void notifyChanged(int section, int localPosition, int count) {
+    if (mCallback != null) {
+      mCallback.onChanged(startOf(section) + localPosition, count);
+    }
+  }
+
+  /**
+   * section changed in an unknown way, reported as removal of the old items and insertion of
+   * the new ones
+   */
+  public void notifySectionChanged(int section) {
+    int start = startOf(section);
+    int oldCount = mSizes[section];
+    int newCount = mSections.get(section).size();
+    resize(section, newCount - oldCount);
+    if (mCallback != null) {
+      if (oldCount > 0) {
+        mCallback.onRemoved(start, oldCount);
+      }
+      if (newCount > 0) {
+        mCallback.onInserted(start, newCount);
+      }
+    }
+  }
+
+  // binary lifting over the tree, section in the high int, local position in the low int
+  private long find(int position) {
+    if (position < 0 || position >= mSize) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+    }
+    int count = mSections.size();
+    int index = 0;
+    for (int step = Integer.highestOneBit(count); step > 0; step >>= 1) {
+      int next = index + step;
+      if (next <= count && mTree[next] <= position) {
+        index = next;
+        position -= mTree[next];
+      }
+    }
+    return ((long) index << 32) | position;
+  }
+
+  private void resize(int section, int delta) {
+    mSizes[section] += delta;
+    mSize += delta;
+    for (int i = section + 1; i < mTree.length; i += i & -i) {
+      mTree[i] += delta;
+    }
+  }
+
+  // O(k) bottom up build
+  private void rebuild() {
+    int count = mSizes.length;
+    mTree = new int[count + 1];
+    mSize = 0;
+    for (int i = 1; i <= count; ++i) {
+      mTree[i] += mSizes[i - 1];
+      mSize += mSizes[i - 1];
+      int parent = i + (i & -i);
+      if (parent <= count) {
+        mTree[parent] += mTree[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,415 @@
+package me.littlekey.base.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import me.littlekey.base.ReadOnlyList;
+import me.littlekey.base.primitive.HashMixer;
+import me.littlekey.base.primitive.IntIntMap;
+
+/**
+ * thread safe sibling of {@link LinkedHashTreeSet}, same add if absent, ordered semantics.
+ * <p>
+ * writers are serialized and publish an immutable {@link Snapshot} after every write or
+ * {@link #edit batch}, readers never lock: {@link #getItem}, {@link #size} and
+ * {@link #snapshot} are a single volatile read.
+ * a snapshot stores items in fixed size chunks, a new version shares every chunk in front of
+ * the lowest modified position, so appending a page copies only the tail chunk and the
+ * chunk directory.
+ * <p>
+ * {@link #getItem} and {@link #size} may see different versions when a writer publishes in
+ * between, bind to one {@link #snapshot()} for a consistent frame.
+ * Created by littlekey on 26/10/18.
+ */
+public class ConcurrentLinkedHashTreeSet<V> implements ReadOnlyList<V> {
+  private static final int CHUNK_SHIFT = 8;
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  // keyOf result for items on the null key
+  private static final long NULL_KEY = Long.MIN_VALUE;
+
+  private final Object mWriteLock = new Object();
+  // guarded by mWriteLock
+  private final Master<V> mMaster;
+  // a subclass still overrides the boxed getKey
+  private final boolean mBoxedKeys;
+  private volatile Snapshot<V> mSnapshot;
+
+  public ConcurrentLinkedHashTreeSet() {
+    this(LinkedHashTreeSet.Ordering.ARRAY);
+  }
+
+  /**
+   * @param ordering writer side ordering, {@link LinkedHashTreeSet.Ordering#TREE} when writers
+   *                 insert or remove in the middle of large sets
+   */
+  public ConcurrentLinkedHashTreeSet(LinkedHashTreeSet.Ordering ordering) {
+    mBoxedKeys = LinkedHashTreeSet.overridesKey(getClass(), ConcurrentLinkedHashTreeSet.class);
+    mMaster = mBoxedKeys ? new BoxedMaster<>(this, ordering) : new Master<>(this, ordering);
+    mSnapshot = new Snapshot<>(this, new Object[0][], 0);
+  }
+
+  /**
+   * wait free
+   * @return immutable version of the current content
+   */
+  public Snapshot<V> snapshot() {
+    return mSnapshot;
+  }
+
+  @Override
+  public V getItem(int position) {
+    return mSnapshot.get(position);
+  }
+
+  @Override
+  public int size() {
+    return mSnapshot.size();
+  }
+
+  public boolean isEmpty() {
+    return mSnapshot.isEmpty();
+  }
+
+  public boolean contains(Object object) {
+    return mSnapshot.contains(object);
+  }
+
+  public int indexOf(Object object) {
+    return mSnapshot.indexOf(object);
+  }
+
+  public void add(V value) {
+    synchronized (mWriteLock) {
+      mMaster.add(value);
+      publish();
+    }
+  }
+
+  public void add(int position, V value) {
+    synchronized (mWriteLock) {
+      mMaster.add(position, value);
+      publish();
+    }
+  }
+
+  public boolean addAll(@NonNull Collection<? extends V> list) {
+    synchronized (mWriteLock) {
+      boolean result = mMaster.addAll(list);
+      publish();
+      return result;
+    }
+  }
+
+  public boolean addAll(int position, @NonNull Collection<? extends V> list) {
+    synchronized (mWriteLock) {
+      boolean result = mMaster.addAll(position, list);
+      publish();
+      return result;
+    }
+  }
+
+  public V remove(int position) {
+    synchronized (mWriteLock) {
+      V value = mMaster.remove(position);
+      publish();
+      return value;
+    }
+  }
+
+  public boolean remove(Object object) {
+    synchronized (mWriteLock) {
+      boolean result = mMaster.remove(object);
+      publish();
+      return result;
+    }
+  }
+
+  public boolean removeAll(@NonNull Collection<?> list) {
+    synchronized (mWriteLock) {
+      boolean result = mMaster.removeAll(list);
+      publish();
+      return result;
+    }
+  }
+
+  public void clear() {
+    synchronized (mWriteLock) {
+      mMaster.clear();
+      publish();
+    }
+  }
+
+  /**
+   * batch write, all changes become visible together in one new version
+   * @param edit runs under the write lock, must not keep the set after returning
+   */
+  public void edit(Edit<V> edit) {
+    synchronized (mWriteLock) {
+      try {
+        edit.apply(mMaster);
+      } finally {
+        publish();
+      }
+    }
+  }
+
+  /**
+   * Override this method to custom Hash Algorithm, same contract as
+   * {@link LinkedHashTreeSet#getIntKey(Object)}
+   */
+  public int getIntKey(Object value) {
+    return value.hashCode();
+  }
+
+  /**
+   * boxed {@link #getIntKey}, same contract as {@link LinkedHashTreeSet#getKey(Object)}
+   */
+  public Integer getKey(Object value) {
+    return value != null ? getIntKey(value) : null;
+  }
+
+  // int key widened, or NULL_KEY, no boxing unless a subclass overrides getKey
+  long keyOf(Object value) {
+    if (mBoxedKeys) {
+      Integer key = getKey(value);
+      return key == null ? NULL_KEY : key;
+    }
+    return value == null ? NULL_KEY : getIntKey(value);
+  }
+
+  // guarded by mWriteLock
+  private void publish() {
+    int dirtyFrom = mMaster.mDirtyFrom;
+    if (dirtyFrom == Integer.MAX_VALUE) {
+      return;
+    }
+    mMaster.mDirtyFrom = Integer.MAX_VALUE;
+    Snapshot<V> old = mSnapshot;
+    int size = mMaster.size();
+    Object[][] chunks = new Object[(size + CHUNK_MASK) >> CHUNK_SHIFT][];
+    // chunks fully in front of dirtyFrom are unchanged, and full in old
+    int shared = Math.min(dirtyFrom >> CHUNK_SHIFT, chunks.length);
+    System.arraycopy(old.mChunks, 0, chunks, 0, shared);
+    for (int i = shared; i < chunks.length; ++i) {
+      int start = i << CHUNK_SHIFT;
+      Object[] chunk = new Object[Math.min(CHUNK_SIZE, size - start)];
+      mMaster.copyValues(start, chunk, chunk.length);
+      chunks[i] = chunk;
+    }
+    Snapshot<V> snapshot = new Snapshot<>(this, chunks, size);
+    old.carryKeys(snapshot, dirtyFrom);
+    mSnapshot = snapshot;
+  }
+
+  public interface Edit<V> {
+    /**
+     * @param set writer side set, only valid during this call
+     */
+    void apply(LinkedHashTreeSet<V> set);
+  }
+
+  /**
+   * immutable, {@link RandomAccess} version of a {@link ConcurrentLinkedHashTreeSet}.
+   * {@link #contains} and {@link #indexOf} build a key table on the first call, O(n) once,
+   * O(1) after that. once built, later versions carry it over: the table is split into
+   * segments by key hash and a write copies only the segments whose keys sit at or past the
+   * lowest modified position, so appending a page stays O(page).
+   */
+  public static final class Snapshot<V> extends AbstractList<V>
+      implements RandomAccess, ReadOnlyList<V> {
+    private final ConcurrentLinkedHashTreeSet<V> mOwner;
+    private final Object[][] mChunks;
+    private final int mSize;
+    // built lazily or carried over by the writer, benign race between readers
+    private volatile KeyTable mKeys;
+
+    Snapshot(ConcurrentLinkedHashTreeSet<V> owner, Object[][] chunks, int size) {
+      mOwner = owner;
+      mChunks = chunks;
+      mSize = size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int position) {
+      if (position < 0 || position >= mSize) {
+        throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+      }
+      return (V) mChunks[position >> CHUNK_SHIFT][position & CHUNK_MASK];
+    }
+
+    @Override
+    public V getItem(int position) {
+      return get(position);
+    }
+
+    @Override
+    public int size() {
+      return mSize;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+      return indexOf(object) != -1;
+    }
+
+    @Override
+    public int indexOf(Object object) {
+      long key = mOwner.keyOf(object);
+      KeyTable keys = keys();
+      return key == NULL_KEY ? keys.mNullPosition : keys.indexOf((int) key);
+    }
+
+    @Override
+    public int lastIndexOf(Object object) {
+      return indexOf(object);
+    }
+
+    private KeyTable keys() {
+      KeyTable keys = mKeys;
+      if (keys == null) {
+        keys = new KeyTable(KeyTable.segmentsFor(mSize));
+        for (int i = 0; i < mSize; ++i) {
+          keys.put(mOwner.keyOf(get(i)), i);
+        }
+        mKeys = keys;
+      }
+      return keys;
+    }
+
+    /**
+     * writer side, called before next is published
+     * @param dirtyFrom lowest position that may differ between this and next
+     */
+    void carryKeys(Snapshot<V> next, int dirtyFrom) {
+      KeyTable keys = mKeys;
+      if (keys == null || !keys.fits(next.mSize)) {
+        // next builds its own on demand, segment count doubles so this is amortized
+        return;
+      }
+      KeyTable carried = new KeyTable(keys);
+      for (int i = dirtyFrom; i < mSize; ++i) {
+        carried.remove(mOwner.keyOf(get(i)), i);
+      }
+      for (int i = dirtyFrom; i < next.mSize; ++i) {
+        carried.put(mOwner.keyOf(next.get(i)), i);
+      }
+      next.mKeys = carried;
+    }
+  }
+
+  /**
+   * key -> position, {@link IntIntMap} segments picked by key hash. a copy shares every
+   * segment and clones one the first time it is written, shared segments are never modified.
+   */
+  private static final class KeyTable {
+    private static final int SEGMENT_SIZE = 64;
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    private final IntIntMap[] mSegments;
+    // segments cloned by this copy, null for a fresh table
+    private final boolean[] mOwned;
+    private int mNullPosition = -1;
+
+    KeyTable(int segments) {
+      mSegments = new IntIntMap[segments];
+      for (int i = 0; i < segments; ++i) {
+        mSegments[i] = new IntIntMap(SEGMENT_SIZE, -1);
+      }
+      mOwned = null;
+    }
+
+    KeyTable(KeyTable source) {
+      mSegments = source.mSegments.clone();
+      mOwned = new boolean[mSegments.length];
+      mNullPosition = source.mNullPosition;
+    }
+
+    static int segmentsFor(int size) {
+      int segments = 1;
+      while (segments < MAX_SEGMENTS && segments * SEGMENT_SIZE < size) {
+        segments <<= 1;
+      }
+      return segments;
+    }
+
+    // within 4x of the size this segment count was picked for
+    boolean fits(int size) {
+      int segments = mSegments.length;
+      return (segments == MAX_SEGMENTS || size <= segments * SEGMENT_SIZE * 2)
+          && (segments == 1 || size * 2 >= segments * SEGMENT_SIZE);
+    }
+
+    int indexOf(int key) {
+      return mSegments[segmentOf(key)].get(key);
+    }
+
+    void put(long key, int position) {
+      if (key == NULL_KEY) {
+        mNullPosition = position;
+      } else {
+        writable((int) key).put((int) key, position);
+      }
+    }
+
+    void remove(long key, int position) {
+      if (key == NULL_KEY) {
+        if (mNullPosition == position) {
+          mNullPosition = -1;
+        }
+      } else if (indexOf((int) key) == position) {
+        writable((int) key).remove((int) key);
+      }
+    }
+
+    private IntIntMap writable(int key) {
+      int segment = segmentOf(key);
+      if (mOwned != null && !mOwned[segment]) {
+        mSegments[segment] = new IntIntMap(mSegments[segment]);
+        mOwned[segment] = true;
+      }
+      return mSegments[segment];
+    }
+
+    // high bits, IntIntMap probes with the low ones
+    private int segmentOf(int key) {
+      return (HashMixer.mix(key) >>> 16) & (mSegments.length - 1);
+    }
+  }
+
+  private static class Master<V> extends LinkedHashTreeSet<V> {
+    final ConcurrentLinkedHashTreeSet<V> mOwner;
+    int mDirtyFrom = Integer.MAX_VALUE;
+
+    Master(ConcurrentLinkedHashTreeSet<V> owner, Ordering ordering) {
+      super(ordering);
+      mOwner = owner;
+    }
+
+    @Override
+    public int getIntKey(Object value) {
+      return mOwner.getIntKey(value);
+    }
+
+    @Override
+    void onModified(int position) {
+      mDirtyFrom = Math.min(mDirtyFrom, position);
+    }
+  }
+
+  // owner overrides the boxed getKey, overriding it here sends the key index down that path
+  private static final class BoxedMaster<V> extends Master<V> {
+    BoxedMaster(ConcurrentLinkedHashTreeSet<V> owner, Ordering ordering) {
+      super(owner, ordering);
+    }
+
+    @Override
+    public Integer getKey(Object value) {
+      return mOwner.getKey(value);
+    }
+  }
+}
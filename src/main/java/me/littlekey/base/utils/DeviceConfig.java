@@ -21,8 +21,6 @@ import java.lang.reflect.Field;
 import java.util.Calendar;
 import java.util.Locale;
 
-import timber.log.Timber;
-
 /**
  * Created by nengxiangzhou on 15/7/31.
  */
@@ -31,6 +29,7 @@ public class DeviceConfig {
   protected static final String UNKNOW = "Unknown";
   private static final String MOBILE_NETWORK = "2G/3G";
   private static final String WIFI = "Wi-Fi";
+  private static final String TAG = "DeviceConfig";
 
   private DeviceConfig() {}
 
@@ -93,23 +92,23 @@ public class DeviceConfig {
     TelephonyManager tm = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
     String imei = "";
     if (tm == null) {
-      Timber.e("No IMEI.");
+      LogUtils.e(TAG, "No IMEI").put("reason", "no TelephonyManager").log();
     } else {
       try {
         if (checkPermission(context, "android.permission.READ_PHONE_STATE")) {
           imei = tm.getDeviceId();
         }
       } catch (Exception e) {
-        Timber.e("No IMEI.", e.getMessage());
+        LogUtils.e(TAG, "No IMEI").error(e).log();
       }
     }
     if (TextUtils.isEmpty(imei)) {
-      Timber.e("No IMEI.");
+      LogUtils.e(TAG, "No IMEI").put("fallback", "mac").log();
       imei = getMac(context);
       if (TextUtils.isEmpty(imei)) {
-        Timber.e("Failed to take mac as IMEI. Try to use Secure.ANDROID_ID instead.");
+        LogUtils.e(TAG, "Failed to take mac as IMEI").put("fallback", "Secure.ANDROID_ID").log();
         imei = Settings.Secure.getString(context.getContentResolver(), "android_id");
-        Timber.i("getDeviceId: Secure.ANDROID_ID: " + imei);
+        LogUtils.i(TAG, "getDeviceId").put("Secure.ANDROID_ID", imei).log();
         return imei;
       }
     }
@@ -252,7 +251,7 @@ public class DeviceConfig {
       Calendar calendar = Calendar.getInstance(locale);
       return calendar.getTimeZone().getRawOffset() / (3600 * 1000);
     } catch (Exception e) {
-      Timber.i("error in getTimeZone", e);
+      LogUtils.i(TAG, "error in getTimeZone").error(e).log();
     }
 
     return DEFAULT_TIMEZONE;
@@ -282,7 +281,7 @@ public class DeviceConfig {
 
       return cl;
     } catch (Exception e) {
-      Timber.e("error in getLocaleInfo" + e.getMessage());
+      LogUtils.e(TAG, "error in getLocaleInfo").error(e).log();
     }
 
     return cl;
@@ -303,7 +302,7 @@ public class DeviceConfig {
           userConfig);
       locale = userConfig.locale;
     } catch (Exception e) {
-      Timber.e("fail to read user config locale");
+      LogUtils.e(TAG, "fail to read user config locale").log();
     }
 
     if (locale == null) {
@@ -337,7 +336,7 @@ public class DeviceConfig {
       var5.printStackTrace();
     }
 
-    Timber.e("Could not read meta-data %s from AndroidManifest.xml.", var1);
+    LogUtils.e(TAG, "Could not read meta-data from AndroidManifest.xml").put("key", var1).log();
     return null;
   }
 
@@ -354,10 +353,11 @@ public class DeviceConfig {
         WifiInfo info = wifi.getConnectionInfo();
         return info.getMacAddress();
       } else {
-        Timber.w("Could not get mac address.[no permission android.permission.ACCESS_WIFI_STATE");
+        LogUtils.w(TAG, "Could not get mac address")
+            .put("missing", Manifest.permission.ACCESS_WIFI_STATE).log();
       }
     } catch (Exception e) {
-      Timber.w("Could not get mac address." + e.toString());
+      LogUtils.w(TAG, "Could not get mac address").error(e).log();
     }
     return "";
   }
@@ -395,7 +395,7 @@ public class DeviceConfig {
 
       return msb.toString();
     } catch (Exception e) {
-      Timber.e("read resolution fail" + e.getMessage());
+      LogUtils.e(TAG, "read resolution fail").error(e).log();
     }
     return "Unknown";
 
@@ -425,7 +425,7 @@ public class DeviceConfig {
           .getSystemService(Context.TELEPHONY_SERVICE))
               .getNetworkOperatorName();
     } catch (Exception e) {
-      Timber.i("read carrier fail" + e.getMessage());
+      LogUtils.i(TAG, "read carrier fail").error(e).log();
     }
     return "Unknown";
   }
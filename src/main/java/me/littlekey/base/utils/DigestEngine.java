@@ -0,0 +1,215 @@
+package me.littlekey.base.utils;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * reusable {@link MessageDigest} with its own UTF-8 buffer, one per thread and algorithm,
+ * see {@link #md5()}. hashing a string allocates nothing but the result, or nothing at all
+ * with the char[] / byte[] variants.
+ * <p>
+ * strings are encoded as UTF-8 the same way {@link String#getBytes()} does on Android,
+ * unpaired surrogates become '?'.
+ * Created by littlekey on 26/10/18.
+ */
+public final class DigestEngine {
+  public static final String MD5 = "MD5";
+  public static final String SHA1 = "SHA-1";
+  public static final String SHA256 = "SHA-256";
+
+  private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+  private static final char[] HEX_LOWER = "0123456789abcdef".toCharArray();
+
+  private static final ThreadLocal<DigestEngine> sMd5 = new EngineLocal(MD5);
+  private static final ThreadLocal<DigestEngine> sSha1 = new EngineLocal(SHA1);
+  private static final ThreadLocal<DigestEngine> sSha256 = new EngineLocal(SHA256);
+
+  private final MessageDigest mDigest;
+  private final byte[] mResult;
+  private final char[] mHex;
+  private byte[] mBuffer = new byte[256];
+
+  private DigestEngine(String algorithm) throws NoSuchAlgorithmException {
+    mDigest = MessageDigest.getInstance(algorithm);
+    mResult = new byte[mDigest.getDigestLength()];
+    mHex = new char[mResult.length * 2];
+  }
+
+  /**
+   * @return engine of the calling thread, never share it with another thread
+   * @throws IllegalStateException platform without MD5
+   */
+  public static DigestEngine md5() {
+    return sMd5.get();
+  }
+
+  public static DigestEngine sha1() {
+    return sSha1.get();
+  }
+
+  public static DigestEngine sha256() {
+    return sSha256.get();
+  }
+
+  /**
+   * engine of the calling thread for one of {@link #MD5}, {@link #SHA1} or {@link #SHA256}
+   */
+  public static DigestEngine of(String algorithm) {
+    if (MD5.equals(algorithm)) {
+      return md5();
+    }
+    if (SHA1.equals(algorithm)) {
+      return sha1();
+    }
+    if (SHA256.equals(algorithm)) {
+      return sha256();
+    }
+    throw new IllegalArgumentException("unsupported algorithm " + algorithm);
+  }
+
+  public int getDigestLength() {
+    return mResult.length;
+  }
+
+  /**
+   * the underlying digest, reset before and after every call of this engine
+   */
+  public MessageDigest getDigest() {
+    return mDigest;
+  }
+
+  /**
+   * @param out receives {@link #getDigestLength()} bytes at offset
+   */
+  public void digest(CharSequence input, byte[] out, int offset) {
+    int length = encodeUtf8(input);
+    mDigest.reset();
+    mDigest.update(mBuffer, 0, length);
+    finish(out, offset);
+  }
+
+  public void digest(byte[] input, int inputOffset, int inputLength, byte[] out, int offset) {
+    mDigest.reset();
+    mDigest.update(input, inputOffset, inputLength);
+    finish(out, offset);
+  }
+
+  /**
+   * @param out receives 2 * {@link #getDigestLength()} hex chars at offset, zero padded
+   */
+  public void hexDigest(CharSequence input, char[] out, int offset, boolean upperCase) {
+    digest(input, mResult, 0);
+    toHex(mResult, 0, mResult.length, out, offset, upperCase);
+  }
+
+  /**
+   * @return zero padded hex of the UTF-8 digest of input
+   */
+  public String hex(CharSequence input, boolean upperCase) {
+    hexDigest(input, mHex, 0, upperCase);
+    return new String(mHex);
+  }
+
+  /**
+   * table hex encoder, two chars per byte
+   */
+  public static void toHex(byte[] bytes, int offset, int length, char[] out, int outOffset,
+                           boolean upperCase) {
+    char[] digits = upperCase ? HEX_UPPER : HEX_LOWER;
+    for (int i = 0; i < length; ++i) {
+      int value = bytes[offset + i] & 0xFF;
+      out[outOffset++] = digits[value >>> 4];
+      out[outOffset++] = digits[value & 0x0F];
+    }
+  }
+
+  /**
+   * @return hex without zero padding, one char for bytes below 0x10, Integer.toHexString style
+   */
+  static String toUnpaddedHex(byte[] bytes, char[] scratch) {
+    int length = 0;
+    for (byte b : bytes) {
+      int value = b & 0xFF;
+      if (value >= 0x10) {
+        scratch[length++] = HEX_LOWER[value >>> 4];
+      }
+      scratch[length++] = HEX_LOWER[value & 0x0F];
+    }
+    return new String(scratch, 0, length);
+  }
+
+  /**
+   * md5 of input as unpadded lowercase hex, the historical umeng format
+   */
+  String unpaddedHex(CharSequence input) {
+    digest(input, mResult, 0);
+    return toUnpaddedHex(mResult, mHex);
+  }
+
+  private void finish(byte[] out, int offset) {
+    try {
+      mDigest.digest(out, offset, mResult.length);
+    } catch (DigestException e) {
+      throw new IllegalArgumentException("need " + mResult.length + " bytes at " + offset, e);
+    }
+  }
+
+  // into mBuffer, grown on demand and kept
+  private int encodeUtf8(CharSequence input) {
+    int count = input.length();
+    if (mBuffer.length < count * 3) {
+      mBuffer = new byte[Math.max(count * 3, mBuffer.length * 2)];
+    }
+    return encodeUtf8(input, 0, count, mBuffer, 0);
+  }
+
+  /**
+   * UTF-8 of input[start, end) into out at offset, unpaired surrogates become '?'
+   * @param out needs room for 3 bytes per char
+   * @return bytes written
+   */
+  static int encodeUtf8(CharSequence input, int start, int end, byte[] out, int offset) {
+    int length = offset;
+    for (int i = start; i < end; ++i) {
+      char c = input.charAt(i);
+      if (c < 0x80) {
+        out[length++] = (byte) c;
+      } else if (c < 0x800) {
+        out[length++] = (byte) (0xC0 | (c >> 6));
+        out[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < end
+          && Character.isLowSurrogate(input.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, input.charAt(++i));
+        out[length++] = (byte) (0xF0 | (codePoint >> 18));
+        out[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        out[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        out[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        out[length++] = '?';
+      } else {
+        out[length++] = (byte) (0xE0 | (c >> 12));
+        out[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        out[length++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return length - offset;
+  }
+
+  private static final class EngineLocal extends ThreadLocal<DigestEngine> {
+    private final String mAlgorithm;
+
+    EngineLocal(String algorithm) {
+      mAlgorithm = algorithm;
+    }
+
+    @Override
+    protected DigestEngine initialValue() {
+      try {
+        return new DigestEngine(mAlgorithm);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(mAlgorithm + " not available", e);
+      }
+    }
+  }
+}
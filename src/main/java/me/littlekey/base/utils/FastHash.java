@@ -0,0 +1,344 @@
+package me.littlekey.base.utils;
+
+/**
+ * non cryptographic 64 / 128 bit hashes for cache keys, much cheaper than md5 and allocation free.
+ * byte[] input follows the reference MurmurHash3 x64_128 and XXH64 bit for bit, so results are
+ * stable across JVMs and safe to persist.
+ * {@link CharSequence} input is hashed as its UTF-16LE bytes read straight from the chars, no
+ * encoding step, so it differs from hashing the UTF-8 bytes of the same string.
+ * Created by littlekey on 26/10/18.
+ */
+public final class FastHash {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private static final long P1 = 0x9E3779B185EBCA87L;
+  private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long P3 = 0x165667B19E3779F9L;
+  private static final long P4 = 0x85EBCA77C2B2AE63L;
+  private static final long P5 = 0x27D4EB2F165667C5L;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  // url and file name safe alphabet, RFC 4648 section 5
+  private static final char[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+  private FastHash() {}
+
+  public static long xxHash64(byte[] data) {
+    return xxHash64(data, 0, data.length, 0);
+  }
+
+  /**
+   * XXH64 of data[offset, offset + length)
+   */
+  public static long xxHash64(byte[] data, int offset, int length, long seed) {
+    int end = offset + length;
+    int i = offset;
+    long h;
+    if (length >= 32) {
+      long v1 = seed + P1 + P2;
+      long v2 = seed + P2;
+      long v3 = seed;
+      long v4 = seed - P1;
+      for (int limit = end - 32; i <= limit; i += 32) {
+        v1 = round(v1, getLong(data, i));
+        v2 = round(v2, getLong(data, i + 8));
+        v3 = round(v3, getLong(data, i + 16));
+        v4 = round(v4, getLong(data, i + 24));
+      }
+      h = merge(v1, v2, v3, v4);
+    } else {
+      h = seed + P5;
+    }
+    h += length;
+    for (; i <= end - 8; i += 8) {
+      h ^= round(0, getLong(data, i));
+      h = Long.rotateLeft(h, 27) * P1 + P4;
+    }
+    if (i <= end - 4) {
+      h ^= (getInt(data, i) & 0xFFFFFFFFL) * P1;
+      h = Long.rotateLeft(h, 23) * P2 + P3;
+      i += 4;
+    }
+    for (; i < end; ++i) {
+      h ^= (data[i] & 0xFF) * P5;
+      h = Long.rotateLeft(h, 11) * P1;
+    }
+    return avalanche(h);
+  }
+
+  public static long xxHash64(CharSequence input) {
+    return xxHash64(input, 0);
+  }
+
+  /**
+   * XXH64 of the UTF-16LE bytes of input
+   */
+  public static long xxHash64(CharSequence input, long seed) {
+    int count = input.length();
+    long length = 2L * count;
+    int i = 0;
+    long h;
+    if (count >= 16) {
+      long v1 = seed + P1 + P2;
+      long v2 = seed + P2;
+      long v3 = seed;
+      long v4 = seed - P1;
+      for (int limit = count - 16; i <= limit; i += 16) {
+        v1 = round(v1, getLong(input, i));
+        v2 = round(v2, getLong(input, i + 4));
+        v3 = round(v3, getLong(input, i + 8));
+        v4 = round(v4, getLong(input, i + 12));
+      }
+      h = merge(v1, v2, v3, v4);
+    } else {
+      h = seed + P5;
+    }
+    h += length;
+    for (; i <= count - 4; i += 4) {
+      h ^= round(0, getLong(input, i));
+      h = Long.rotateLeft(h, 27) * P1 + P4;
+    }
+    if (i <= count - 2) {
+      h ^= (input.charAt(i) | (long) input.charAt(i + 1) << 16) * P1;
+      h = Long.rotateLeft(h, 23) * P2 + P3;
+      i += 2;
+    }
+    if (i < count) {
+      char c = input.charAt(i);
+      h ^= (c & 0xFF) * P5;
+      h = Long.rotateLeft(h, 11) * P1;
+      h ^= (c >>> 8) * P5;
+      h = Long.rotateLeft(h, 11) * P1;
+    }
+    return avalanche(h);
+  }
+
+  /**
+   * @return first half of {@link #murmur3Hash128}
+   */
+  public static long murmur3Hash64(CharSequence input) {
+    return murmur3Hash128(input, 0, null);
+  }
+
+  public static long murmur3Hash64(byte[] data) {
+    return murmur3Hash128(data, 0, data.length, 0, null);
+  }
+
+  /**
+   * MurmurHash3 x64_128 of data[offset, offset + length)
+   * @param out nullable, receives both halves at out[0], out[1]
+   * @return first half
+   */
+  public static long murmur3Hash128(byte[] data, int offset, int length, int seed, long[] out) {
+    long h1 = seed & 0xFFFFFFFFL;
+    long h2 = h1;
+    int end = offset + length;
+    int i = offset;
+    for (int limit = end - 16; i <= limit; i += 16) {
+      h1 ^= mixK1(getLong(data, i));
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(getLong(data, i + 8));
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    long k1 = 0;
+    long k2 = 0;
+    for (int j = end - 1; j >= i; --j) {
+      int shift = (j - i) << 3;
+      if (shift >= 64) {
+        k2 |= (long) (data[j] & 0xFF) << (shift - 64);
+      } else {
+        k1 |= (long) (data[j] & 0xFF) << shift;
+      }
+    }
+    if (end - i > 8) {
+      h2 ^= mixK2(k2);
+    }
+    if (end - i > 0) {
+      h1 ^= mixK1(k1);
+    }
+    return finish(h1, h2, length, out);
+  }
+
+  /**
+   * MurmurHash3 x64_128 of the UTF-16LE bytes of input
+   * @param out nullable, receives both halves at out[0], out[1]
+   * @return first half
+   */
+  public static long murmur3Hash128(CharSequence input, int seed, long[] out) {
+    long h1 = seed & 0xFFFFFFFFL;
+    long h2 = h1;
+    int count = input.length();
+    int i = 0;
+    for (int limit = count - 8; i <= limit; i += 8) {
+      h1 ^= mixK1(getLong(input, i));
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(getLong(input, i + 4));
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    long k1 = 0;
+    long k2 = 0;
+    for (int j = count - 1; j >= i; --j) {
+      int shift = (j - i) << 4;
+      if (shift >= 64) {
+        k2 |= (long) input.charAt(j) << (shift - 64);
+      } else {
+        k1 |= (long) input.charAt(j) << shift;
+      }
+    }
+    if (count - i > 4) {
+      h2 ^= mixK2(k2);
+    }
+    if (count - i > 0) {
+      h1 ^= mixK1(k1);
+    }
+    return finish(h1, h2, 2L * count, out);
+  }
+
+  /**
+   * @return 16 lowercase hex chars, big endian
+   */
+  public static String toHex(long hash) {
+    char[] chars = new char[16];
+    writeHex(hash, chars, 0);
+    return new String(chars);
+  }
+
+  /**
+   * @return 32 lowercase hex chars, safe as a file name on case insensitive storage
+   */
+  public static String toHex(long high, long low) {
+    char[] chars = new char[32];
+    writeHex(high, chars, 0);
+    writeHex(low, chars, 16);
+    return new String(chars);
+  }
+
+  /**
+   * @return 22 url safe base64 chars without padding, case sensitive, memory keys only
+   */
+  public static String toBase64(long high, long low) {
+    char[] chars = new char[22];
+    // 128 bits in 6 bit groups, the last group holds the trailing 2 bits
+    for (int i = 0; i < 21; ++i) {
+      int bit = i * 6;
+      chars[i] = BASE64[bits(high, low, bit, 6)];
+    }
+    chars[21] = BASE64[bits(high, low, 126, 2) << 4];
+    return new String(chars);
+  }
+
+  // count bits starting at bit (0 is the top bit of high)
+  private static int bits(long high, long low, int bit, int count) {
+    long value;
+    if (bit + count <= 64) {
+      value = high >>> (64 - bit - count);
+    } else if (bit >= 64) {
+      value = low >>> (128 - bit - count);
+    } else {
+      value = (high << (bit + count - 64)) | (low >>> (128 - bit - count));
+    }
+    return (int) (value & ((1 << count) - 1));
+  }
+
+  private static void writeHex(long value, char[] out, int offset) {
+    for (int i = 15; i >= 0; --i) {
+      out[offset + i] = HEX[(int) (value & 0x0F)];
+      value >>>= 4;
+    }
+  }
+
+  private static long finish(long h1, long h2, long length, long[] out) {
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    h2 += h1;
+    if (out != null) {
+      out[0] = h1;
+      out[1] = h2;
+    }
+    return h1;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    return k1 * C2;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    return k2 * C1;
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  private static long round(long acc, long input) {
+    acc += input * P2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * P1;
+  }
+
+  private static long merge(long v1, long v2, long v3, long v4) {
+    long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+        + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+    h = (h ^ round(0, v1)) * P1 + P4;
+    h = (h ^ round(0, v2)) * P1 + P4;
+    h = (h ^ round(0, v3)) * P1 + P4;
+    h = (h ^ round(0, v4)) * P1 + P4;
+    return h;
+  }
+
+  private static long avalanche(long h) {
+    h ^= h >>> 33;
+    h *= P2;
+    h ^= h >>> 29;
+    h *= P3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  // little endian
+  private static long getLong(byte[] data, int i) {
+    return (data[i] & 0xFFL)
+        | (data[i + 1] & 0xFFL) << 8
+        | (data[i + 2] & 0xFFL) << 16
+        | (data[i + 3] & 0xFFL) << 24
+        | (data[i + 4] & 0xFFL) << 32
+        | (data[i + 5] & 0xFFL) << 40
+        | (data[i + 6] & 0xFFL) << 48
+        | (data[i + 7] & 0xFFL) << 56;
+  }
+
+  private static int getInt(byte[] data, int i) {
+    return (data[i] & 0xFF)
+        | (data[i + 1] & 0xFF) << 8
+        | (data[i + 2] & 0xFF) << 16
+        | (data[i + 3] & 0xFF) << 24;
+  }
+
+  // four chars as little endian UTF-16
+  private static long getLong(CharSequence input, int i) {
+    return input.charAt(i)
+        | (long) input.charAt(i + 1) << 16
+        | (long) input.charAt(i + 2) << 32
+        | (long) input.charAt(i + 3) << 48;
+  }
+}
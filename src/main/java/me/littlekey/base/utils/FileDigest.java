@@ -0,0 +1,315 @@
+package me.littlekey.base.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * streaming digests of files, channels and streams without reading them into memory.
+ * large files are hashed through read only {@link MappedByteBuffer} windows, small ones and
+ * streams through one heap buffer per thread, algorithm is one of {@link DigestEngine#MD5}, {@link DigestEngine#SHA1}
+ * or {@link DigestEngine#SHA256}.
+ * progress and cancellation are checked every {@link #SLICE_SIZE} bytes, a cancelled digest
+ * throws {@link CancellationException}.
+ * Created by littlekey on 26/10/18.
+ */
+public final class FileDigest {
+  // smaller files are read, mapping costs more than it saves
+  static final long MAP_THRESHOLD = 256 * 1024;
+  static final int WINDOW_SIZE = 8 * 1024 * 1024;
+  static final int SLICE_SIZE = 256 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // read chunks go straight into MessageDigest#update(byte[]), listeners only run between them
+  private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[BUFFER_SIZE];
+    }
+  };
+
+  private FileDigest() {}
+
+  public interface ProgressListener {
+    /**
+     * on the hashing thread
+     * @param total -1 if unknown, e.g. a plain stream
+     */
+    void onProgress(long processed, long total);
+  }
+
+  public interface BatchListener {
+    /**
+     * on the hashing thread, digest is null if the file failed
+     */
+    void onFileDigested(int index, File file, byte[] digest, IOException error);
+  }
+
+  /**
+   * cooperative cancellation, shared by every digest it is passed to
+   */
+  public static final class Cancellation {
+    private volatile boolean mCancelled;
+
+    public void cancel() {
+      mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return mCancelled;
+    }
+
+    void check() {
+      if (mCancelled) {
+        throw new CancellationException();
+      }
+    }
+  }
+
+  public static byte[] digest(File file, String algorithm) throws IOException {
+    return digest(file, algorithm, null, null);
+  }
+
+  /**
+   * @param listener nullable
+   * @param cancellation nullable
+   */
+  public static byte[] digest(File file, String algorithm, ProgressListener listener,
+                              Cancellation cancellation) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return digest(channel, 0, channel.size(), algorithm, listener, cancellation);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * digest size bytes of channel from position, the channel position is left untouched
+   */
+  public static byte[] digest(FileChannel channel, long position, long size, String algorithm,
+                              ProgressListener listener, Cancellation cancellation)
+      throws IOException {
+    MessageDigest digest = newDigest(algorithm);
+    if (size < MAP_THRESHOLD) {
+      byte[] array = sBuffer.get();
+      ByteBuffer buffer = ByteBuffer.wrap(array);
+      long processed = 0;
+      while (processed < size) {
+        buffer.limit((int) Math.min(array.length, size - processed));
+        int read = channel.read(buffer, position + processed);
+        if (read < 0) {
+          break;
+        }
+        digest.update(array, 0, read);
+        buffer.clear();
+        processed += read;
+      }
+      report(listener, cancellation, processed, size);
+      return digest.digest();
+    }
+    long processed = 0;
+    while (processed < size) {
+      long windowSize = Math.min(WINDOW_SIZE, size - processed);
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+          position + processed, windowSize);
+      for (int offset = 0; offset < windowSize; offset += SLICE_SIZE) {
+        if (cancellation != null) {
+          cancellation.check();
+        }
+        window.limit((int) Math.min(offset + SLICE_SIZE, windowSize));
+        window.position(offset);
+        digest.update(window);
+        if (listener != null) {
+          listener.onProgress(processed + window.limit(), size);
+        }
+      }
+      processed += windowSize;
+    }
+    return digest.digest();
+  }
+
+  /**
+   * file streams go through their channel, anything else is read in chunks, in is not closed
+   */
+  public static byte[] digest(InputStream in, String algorithm, ProgressListener listener,
+                              Cancellation cancellation) throws IOException {
+    if (in instanceof FileInputStream) {
+      FileChannel channel = ((FileInputStream) in).getChannel();
+      long position = channel.position();
+      byte[] result = digest(channel, position, channel.size() - position, algorithm, listener,
+          cancellation);
+      channel.position(channel.size());
+      return result;
+    }
+    MessageDigest digest = newDigest(algorithm);
+    byte[] buffer = sBuffer.get();
+    long processed = 0;
+    long reported = 0;
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      digest.update(buffer, 0, read);
+      processed += read;
+      if (processed - reported >= SLICE_SIZE) {
+        reported = processed;
+        report(listener, cancellation, processed, -1);
+      }
+    }
+    report(listener, cancellation, processed, -1);
+    return digest.digest();
+  }
+
+  /**
+   * hash files on executor plus the calling thread, at most parallelism at a time, blocks until
+   * all are done. a failed file leaves null in the result and is reported to listener.
+   * @param listener nullable
+   * @param cancellation nullable, files not yet started are skipped once cancelled
+   * @return digest of every file in order
+   */
+  public static byte[][] digestAll(List<File> files, String algorithm, Executor executor,
+                                   int parallelism, BatchListener listener,
+                                   Cancellation cancellation) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism: " + parallelism);
+    }
+    checkAlgorithm(algorithm);
+    BatchTask task = new BatchTask(files, algorithm, listener, cancellation);
+    for (int i = 1, workers = Math.min(parallelism, files.size()); i < workers; ++i) {
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // the calling thread picks up the files
+        break;
+      }
+    }
+    task.run();
+    task.await();
+    if (cancellation != null) {
+      cancellation.check();
+    }
+    return task.mResults;
+  }
+
+  private static void checkAlgorithm(String algorithm) {
+    if (!DigestEngine.MD5.equals(algorithm) && !DigestEngine.SHA1.equals(algorithm)
+        && !DigestEngine.SHA256.equals(algorithm)) {
+      throw new IllegalArgumentException("unsupported algorithm " + algorithm);
+    }
+  }
+
+  private static MessageDigest newDigest(String algorithm) {
+    // not the DigestEngine one, listeners may hash strings on this thread meanwhile
+    checkAlgorithm(algorithm);
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(algorithm + " not available", e);
+    }
+  }
+
+  private static void report(ProgressListener listener, Cancellation cancellation,
+                             long processed, long total) {
+    if (cancellation != null) {
+      cancellation.check();
+    }
+    if (listener != null) {
+      listener.onProgress(processed, total);
+    }
+  }
+
+  /**
+   * files are claimed from a shared counter, by pool threads and the calling thread alike
+   */
+  private static final class BatchTask implements Runnable {
+    private final AtomicInteger mNext = new AtomicInteger();
+    private final List<File> mFiles;
+    private final String mAlgorithm;
+    private final BatchListener mListener;
+    private final Cancellation mCancellation;
+    private final CountDownLatch mDone;
+    private volatile Throwable mError;
+    final byte[][] mResults;
+
+    BatchTask(List<File> files, String algorithm, BatchListener listener,
+              Cancellation cancellation) {
+      mFiles = files;
+      mAlgorithm = algorithm;
+      mListener = listener;
+      mCancellation = cancellation;
+      mResults = new byte[files.size()][];
+      mDone = new CountDownLatch(files.size());
+    }
+
+    @Override
+    public void run() {
+      int index;
+      while ((index = mNext.getAndIncrement()) < mResults.length) {
+        try {
+          if (mError == null && (mCancellation == null || !mCancellation.isCancelled())) {
+            digest(index, mFiles.get(index));
+          }
+        } catch (CancellationException e) {
+          // surfaced once by digestAll
+        } catch (Throwable e) {
+          mError = e;
+        } finally {
+          mDone.countDown();
+        }
+      }
+    }
+
+    private void digest(int index, File file) {
+      byte[] result = null;
+      IOException error = null;
+      try {
+        result = FileDigest.digest(file, mAlgorithm, null, mCancellation);
+      } catch (IOException e) {
+        error = e;
+      }
+      mResults[index] = result;
+      if (mListener != null) {
+        mListener.onFileDigested(index, file, result, error);
+      }
+    }
+
+    void await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          mDone.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      // latch happens before, results and error of every file are visible here
+      Throwable error = mError;
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error instanceof Error) {
+        throw (Error) error;
+      }
+      if (error != null) {
+        throw new RuntimeException(error);
+      }
+    }
+  }
+}
@@ -1,6 +1,10 @@
 package me.littlekey.base.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Created by nengxiangzhou on 15/9/24.
@@ -23,4 +27,28 @@ public class FileUtils {
     }
     return false;
   }
+
+  static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * write what was put into staging and clear it for the next batch
+   */
+  static void flushStaging(FileChannel channel, ByteBuffer staging) throws IOException {
+    staging.flip();
+    writeFully(channel, staging);
+    staging.clear();
+  }
+
+  /**
+   * exposes the backing array, avoids toByteArray copies per record
+   */
+  static final class Bytes extends ByteArrayOutputStream {
+    byte[] buffer() {
+      return buf;
+    }
+  }
 }
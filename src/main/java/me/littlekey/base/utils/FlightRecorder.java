@@ -0,0 +1,359 @@
+package me.littlekey.base.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import me.littlekey.base.ReadOnlyList;
+
+/**
+ * fixed size, memory mapped ring of the latest log records. a record is one copy into the
+ * mapping, no syscall, and the kernel keeps the dirty pages when the process dies, so the next
+ * launch finds them in {@link #getPreviousSession()}, moved aside to file.prev.
+ * <pre>
+ *   header, 40 bytes, big endian
+ *     int   magic 'LKFR'
+ *     int   version
+ *     int   capacity of the ring
+ *     int   flags, {@link #FLAG_CRASHED}
+ *     long  head, logical position of the oldest intact record
+ *     long  tail, logical end of the newest record
+ *     long  session start millis
+ *   ring, records never wrap, the rest of the ring is skipped, marked with -1 if 4 bytes fit
+ *     int   record length, this int included
+ *     long  time millis
+ *     long  thread id
+ *     byte  priority
+ *     short tag length, -1 for no tag
+ *           tag UTF-8
+ *           message UTF-8, the rest of the record
+ * </pre>
+ * head is stored before old records are overwritten and tail after the new one is complete, so
+ * [head, tail) is always readable.
+ * Created by littlekey on 26/10/18.
+ */
+public final class FlightRecorder {
+  public static final int VERSION = 1;
+  public static final int FLAG_CRASHED = 1;
+  public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+  private static final int MAGIC = 0x4C4B4652;
+  private static final int HEADER_SIZE = 40;
+  private static final int FLAGS_OFFSET = 12;
+  private static final int HEAD_OFFSET = 16;
+  private static final int TAIL_OFFSET = 24;
+  // length, time, thread id, priority, tag length
+  private static final int FIXED_SIZE = 23;
+  private static final int WRAP = -1;
+  private static final int MAX_TAG_CHARS = 64;
+  private static final int MAX_MESSAGE_CHARS = 1024;
+  private static final int MAX_RECORD_SIZE = FIXED_SIZE + 3 * (MAX_TAG_CHARS + MAX_MESSAGE_CHARS);
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String PREVIOUS_SUFFIX = ".prev";
+
+  private final MappedByteBuffer mBuffer;
+  private final int mCapacity;
+  private final Session mPreviousSession;
+  private final byte[] mScratch = new byte[MAX_RECORD_SIZE];
+  private final ByteBuffer mRecord = ByteBuffer.wrap(mScratch);
+  private long mHead;
+  private long mTail;
+
+  private FlightRecorder(MappedByteBuffer buffer, int capacity, Session previousSession) {
+    mBuffer = buffer;
+    mCapacity = capacity;
+    mPreviousSession = previousSession;
+  }
+
+  /**
+   * keep what the previous process left in file aside as file.prev, then start a new session
+   * in file. only the header of the previous ring is read here, its records are decoded on first
+   * access to the {@link Session}.
+   * @param capacity ring size in bytes, changing it discards the previous session
+   */
+  public static FlightRecorder open(File file, int capacity) throws IOException {
+    if (capacity < 4 * 1024) {
+      throw new IllegalArgumentException("capacity: " + capacity);
+    }
+    Session previous = null;
+    File previousFile = new File(file.getPath() + PREVIOUS_SUFFIX);
+    if (file.length() == HEADER_SIZE + capacity && file.renameTo(previousFile)) {
+      previous = Session.open(previousFile, capacity);
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(HEADER_SIZE + capacity);
+      // the mapping stays valid after the file is closed
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+          HEADER_SIZE + capacity);
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, VERSION);
+      buffer.putInt(8, capacity);
+      buffer.putInt(FLAGS_OFFSET, 0);
+      buffer.putLong(HEAD_OFFSET, 0);
+      buffer.putLong(TAIL_OFFSET, 0);
+      buffer.putLong(32, System.currentTimeMillis());
+      return new FlightRecorder(buffer, capacity, previous);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * @return records of the previous process, null if there were none or the file was unreadable.
+   * cheap, records are decoded when the session is first read, e.g. on the report upload thread
+   */
+  public Session getPreviousSession() {
+    return mPreviousSession;
+  }
+
+  /**
+   * copy one record into the ring, overwriting the oldest ones as needed.
+   * tag and message are cut to 64 and 1024 chars.
+   */
+  public synchronized void record(int priority, String tag, String message) {
+    int tagChars = tag == null ? 0 : Math.min(tag.length(), MAX_TAG_CHARS);
+    int messageChars = message == null ? 0 : Math.min(message.length(), MAX_MESSAGE_CHARS);
+    int size = FIXED_SIZE;
+    if (tag != null) {
+      size += DigestEngine.encodeUtf8(tag, 0, tagChars, mScratch, size);
+    }
+    mRecord.putShort(FIXED_SIZE - 2, (short) (tag == null ? -1 : size - FIXED_SIZE));
+    if (message != null) {
+      size += DigestEngine.encodeUtf8(message, 0, messageChars, mScratch, size);
+    }
+    mRecord.putInt(0, size);
+    mRecord.putLong(4, System.currentTimeMillis());
+    mRecord.putLong(12, Thread.currentThread().getId());
+    mRecord.put(20, (byte) priority);
+
+    long tail = mTail;
+    int offset = (int) (tail % mCapacity);
+    int skip = offset + size > mCapacity ? mCapacity - offset : 0;
+    long end = tail + skip + size;
+    if (end - mHead > mCapacity) {
+      advanceHead(end - mCapacity);
+      mBuffer.putLong(HEAD_OFFSET, mHead);
+    }
+    if (skip > 0) {
+      if (skip >= 4) {
+        mBuffer.putInt(HEADER_SIZE + offset, WRAP);
+      }
+      offset = 0;
+    }
+    mBuffer.position(HEADER_SIZE + offset);
+    mBuffer.put(mScratch, 0, size);
+    mTail = end;
+    mBuffer.putLong(TAIL_OFFSET, end);
+  }
+
+  /**
+   * record the throwable, flag the session as crashed and force the ring to storage, then hand
+   * over to the previous handler
+   */
+  public void installCrashHandler() {
+    final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+    Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+      @Override
+      public void uncaughtException(Thread thread, Throwable e) {
+        try {
+          StringWriter trace = new StringWriter();
+          e.printStackTrace(new PrintWriter(trace));
+          record(Log.ASSERT, "FlightRecorder", "uncaught in " + thread.getName() + "\n" + trace);
+          synchronized (FlightRecorder.this) {
+            mBuffer.putInt(FLAGS_OFFSET, FLAG_CRASHED);
+            mBuffer.force();
+          }
+        } finally {
+          if (previous != null) {
+            previous.uncaughtException(thread, e);
+          }
+        }
+      }
+    });
+  }
+
+  // move head past whole records until it reaches target
+  private void advanceHead(long target) {
+    long head = mHead;
+    while (head < target) {
+      int offset = (int) (head % mCapacity);
+      int length = mCapacity - offset < 4 ? WRAP : mBuffer.getInt(HEADER_SIZE + offset);
+      head += length == WRAP ? mCapacity - offset : length;
+    }
+    mHead = head;
+  }
+
+  /**
+   * records of one process, oldest first
+   */
+  public static final class Session implements ReadOnlyList<Entry> {
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final long mStartMillis;
+    private final boolean mCrashed;
+    // decoded on first read
+    private List<Entry> mEntries;
+
+    private Session(ByteBuffer buffer, int capacity) {
+      mBuffer = buffer;
+      mCapacity = capacity;
+      mStartMillis = buffer.getLong(32);
+      mCrashed = (buffer.getInt(FLAGS_OFFSET) & FLAG_CRASHED) != 0;
+    }
+
+    // header only, null if file holds no readable ring of capacity
+    static Session open(File file, int capacity) {
+      try {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+          ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+              HEADER_SIZE + capacity);
+          if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+              || buffer.getInt(8) != capacity) {
+            return null;
+          }
+          long head = buffer.getLong(HEAD_OFFSET);
+          long tail = buffer.getLong(TAIL_OFFSET);
+          if (head < 0 || head > tail || tail - head > capacity) {
+            return null;
+          }
+          return new Session(buffer, capacity);
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    public long getStartMillis() {
+      return mStartMillis;
+    }
+
+    /**
+     * @return true if the session ended in an uncaught exception seen by
+     * {@link #installCrashHandler}, a native crash or a kill leaves it false
+     */
+    public boolean isCrashed() {
+      return mCrashed;
+    }
+
+    @Override
+    public Entry getItem(int position) {
+      return entries().get(position);
+    }
+
+    @Override
+    public int size() {
+      return entries().size();
+    }
+
+    /**
+     * logcat like text, one line per record, e.g. to attach to a crash report
+     */
+    public String toText() {
+      SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+      StringBuilder builder = new StringBuilder();
+      for (Entry entry : entries()) {
+        builder.append(format.format(new Date(entry.mTime))).append(' ')
+            .append(entry.mThreadId).append(' ')
+            .append("??VDIWEA".charAt(Math.max(0, Math.min(7, entry.mPriority)))).append('/')
+            .append(entry.mTag == null ? "" : entry.mTag).append(": ")
+            .append(entry.mMessage).append('\n');
+      }
+      return builder.toString();
+    }
+
+    private synchronized List<Entry> entries() {
+      if (mEntries == null) {
+        mEntries = decode();
+      }
+      return mEntries;
+    }
+
+    private List<Entry> decode() {
+      ByteBuffer buffer = mBuffer.duplicate();
+      int capacity = mCapacity;
+      long head = buffer.getLong(HEAD_OFFSET);
+      long tail = buffer.getLong(TAIL_OFFSET);
+      List<Entry> entries = new ArrayList<>();
+      byte[] scratch = new byte[MAX_RECORD_SIZE];
+      while (head < tail) {
+        int offset = (int) (head % capacity);
+        int length = capacity - offset < 4 ? WRAP : buffer.getInt(HEADER_SIZE + offset);
+        if (length == WRAP) {
+          head += capacity - offset;
+          continue;
+        }
+        if (length < FIXED_SIZE || length > MAX_RECORD_SIZE || offset + length > capacity
+            || head + length > tail) {
+          // damaged, keep what was read so far
+          break;
+        }
+        buffer.position(HEADER_SIZE + offset);
+        buffer.get(scratch, 0, length);
+        ByteBuffer record = ByteBuffer.wrap(scratch, 0, length);
+        int tagLength = record.getShort(FIXED_SIZE - 2);
+        if (tagLength > length - FIXED_SIZE) {
+          break;
+        }
+        String tag = tagLength < 0 ? null : new String(scratch, FIXED_SIZE, tagLength, UTF_8);
+        int messageStart = FIXED_SIZE + Math.max(tagLength, 0);
+        entries.add(new Entry(record.getLong(4), record.getLong(12), record.get(20), tag,
+            new String(scratch, messageStart, length - messageStart, UTF_8)));
+        head += length;
+      }
+      return entries;
+    }
+  }
+
+  public static final class Entry {
+    private final long mTime;
+    private final long mThreadId;
+    private final int mPriority;
+    private final String mTag;
+    private final String mMessage;
+
+    Entry(long time, long threadId, int priority, String tag, String message) {
+      mTime = time;
+      mThreadId = threadId;
+      mPriority = priority;
+      mTag = tag;
+      mMessage = message;
+    }
+
+    public long getTime() {
+      return mTime;
+    }
+
+    public long getThreadId() {
+      return mThreadId;
+    }
+
+    public int getPriority() {
+      return mPriority;
+    }
+
+    public String getTag() {
+      return mTag;
+    }
+
+    public String getMessage() {
+      return mMessage;
+    }
+  }
+}
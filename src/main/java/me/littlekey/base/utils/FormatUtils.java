@@ -3,58 +3,81 @@ package me.littlekey.base.utils;
 import android.content.res.Resources;
 import android.util.TypedValue;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
-import timber.log.Timber;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Created by nengxiangzhou on 15/7/31.
  */
 public class FormatUtils {
+  private static final String TAG = "FormatUtils";
+
+  /**
+   * @return uppercase hex md5 of the UTF-8 bytes of str, thread local engine, no MessageDigest lookup
+   */
   public static String getMD5(String str) {
     if (str == null)
       return null;
     try {
-      byte[] defaultBytes = str.getBytes();
-      MessageDigest algorithm = MessageDigest.getInstance("MD5");
-      algorithm.reset();
-      algorithm.update(defaultBytes);
-      byte messageDigest[] = algorithm.digest();
-      StringBuffer hexString = new StringBuffer();
-      for (int i = 0; i < messageDigest.length; i++) {
-        hexString.append(String.format("%02X", messageDigest[i]));
-      }
-
-      return hexString.toString();
-
-    } catch (Exception e) {
+      return DigestEngine.md5().hex(str, true);
+    } catch (IllegalStateException e) {
       return str.replaceAll("[^[a-z][A-Z][0-9][.][_]]", "");
     }
   }
 
+  /**
+   * md5 into out as 32 uppercase hex chars at offset, allocation free
+   */
+  public static void getMD5(CharSequence str, char[] out, int offset) {
+    DigestEngine.md5().hexDigest(str, out, offset, true);
+  }
+
+  /**
+   * @return lowercase hex md5 without zero padding, bytes below 0x10 take one char
+   */
   public static String getUmengMD5(String input) {
     try {
-      // Create MD5 Hash
-      MessageDigest digest = java.security.MessageDigest
-          .getInstance("MD5");
-      digest.update(input.getBytes());
-      byte messageDigest[] = digest.digest();
-
-      // Create Hex String
-      StringBuilder hexString = new StringBuilder();
-      for (byte aMessageDigest : messageDigest) {
-        int var = 0xFF & aMessageDigest;
-        hexString.append(Integer.toHexString(var));
-      }
-      return hexString.toString();
-
-    } catch (NoSuchAlgorithmException e) {
-      Timber.e("getMD5 error:" + e.getMessage());
+      return DigestEngine.md5().unpaddedHex(input);
+    } catch (IllegalStateException e) {
+      LogUtils.e(TAG, "getMD5 error").error(e).log();
     }
     return "";
   }
 
+  /**
+   * cache key of str, 128 bit murmur3 as 32 lowercase hex chars, stable across runs, use it
+   * instead of {@link #getMD5} when nothing depends on md5 itself
+   */
+  public static String getCacheKey(CharSequence str) {
+    long[] hash = new long[2];
+    FastHash.murmur3Hash128(str, 0, hash);
+    return FastHash.toHex(hash[0], hash[1]);
+  }
+
+  /**
+   * @return uppercase hex md5 of file, streamed through {@link FileDigest}
+   */
+  public static String getFileMD5(File file) throws IOException {
+    return getFileDigest(file, DigestEngine.MD5);
+  }
+
+  /**
+   * @param algorithm {@link DigestEngine#MD5}, {@link DigestEngine#SHA1} or {@link DigestEngine#SHA256}
+   * @return uppercase hex digest of file
+   */
+  public static String getFileDigest(File file, String algorithm) throws IOException {
+    return toHex(FileDigest.digest(file, algorithm));
+  }
+
+  /**
+   * @return uppercase hex of digest, zero padded
+   */
+  public static String toHex(byte[] digest) {
+    char[] hex = new char[digest.length * 2];
+    DigestEngine.toHex(digest, 0, digest.length, hex, 0, true);
+    return new String(hex);
+  }
+
   /**
    * Get pixel size of dips.
    *
@@ -0,0 +1,92 @@
+package me.littlekey.base.utils;
+
+import java.util.Arrays;
+
+import me.littlekey.base.primitive.IntIntMap;
+
+/**
+ * {@link KeyIndex} over {@link LinkedHashTreeSet#getIntKey(Object)} int keys, null keys chain apart.
+ * only an owner still overriding the boxed {@link LinkedHashTreeSet#getKey(Object)} goes through it.
+ * Created by littlekey on 26/10/18.
+ */
+final class IntKeyIndex extends KeyIndex {
+  private final LinkedHashTreeSet<?> mOwner;
+  private final boolean mBoxed;
+  private final IntIntMap mTable;
+  private int[] mSlotKeys;
+  private int mNullHead = NO_SLOT;
+
+  IntKeyIndex(LinkedHashTreeSet<?> owner, int capacity, boolean verify) {
+    super(capacity, verify);
+    mOwner = owner;
+    mBoxed = LinkedHashTreeSet.overridesKey(owner.getClass(), LinkedHashTreeSet.class);
+    mTable = new IntIntMap(capacity, NO_SLOT);
+    mSlotKeys = new int[capacity];
+  }
+
+  @Override
+  int head(Object value) {
+    if (mBoxed) {
+      Integer key = mOwner.getKey(value);
+      return key == null ? mNullHead : mTable.get(key);
+    }
+    return value == null ? mNullHead : mTable.get(mOwner.getIntKey(value));
+  }
+
+  @Override
+  void put(Object value, int slot) {
+    int key;
+    if (mBoxed) {
+      Integer boxed = mOwner.getKey(value);
+      if (boxed == null) {
+        mNullHead = link(mNullHead, slot);
+        return;
+      }
+      key = boxed;
+    } else if (value == null) {
+      mNullHead = link(mNullHead, slot);
+      return;
+    } else {
+      key = mOwner.getIntKey(value);
+    }
+    mSlotKeys[slot] = key;
+    mTable.put(key, link(mTable.get(key), slot));
+  }
+
+  @Override
+  void remove(int slot) {
+    // null chain is 0 or 1 long unless getKey returns null for non null items
+    if (inChain(mNullHead, slot)) {
+      mNullHead = unlink(mNullHead, slot);
+      return;
+    }
+    int key = mSlotKeys[slot];
+    int head = unlink(mTable.get(key), slot);
+    if (head == NO_SLOT) {
+      mTable.remove(key);
+    } else {
+      mTable.put(key, head);
+    }
+  }
+
+  @Override
+  long keyAt(int slot) {
+    return mSlotKeys[slot];
+  }
+
+  @Override
+  void clear() {
+    mTable.clear();
+    mNullHead = NO_SLOT;
+  }
+
+  @Override
+  void ensureCapacity(int capacity) {
+    super.ensureCapacity(capacity);
+    if (capacity > mSlotKeys.length) {
+      mSlotKeys = Arrays.copyOf(mSlotKeys, capacity);
+    }
+    mTable.ensureCapacity(capacity);
+  }
+
+}
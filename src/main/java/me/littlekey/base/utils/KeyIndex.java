@@ -0,0 +1,131 @@
+package me.littlekey.base.utils;
+
+import java.util.Arrays;
+
+/**
+ * value -> slot index of {@link LinkedHashTreeSet}.
+ * <p>
+ * by default equal keys mean duplicate items. when verifying, items with equal keys are also
+ * compared with {@link Object#equals}, unequal ones are chained on the same key instead of being
+ * dropped, so a true collision costs one extra equals per lookup and stays O(1).
+ * Created by littlekey on 26/10/18.
+ */
+abstract class KeyIndex {
+  static final int NO_SLOT = -1;
+
+  private final boolean mVerify;
+  // slot -> next slot with the same key, only when verifying
+  private int[] mNext;
+  private Object[] mValues;
+
+  KeyIndex(int capacity, boolean verify) {
+    mVerify = verify;
+    mNext = verify ? new int[capacity] : null;
+  }
+
+  /**
+   * @return first slot of the chain of value's key, equal to value or not, or {@link #NO_SLOT}
+   */
+  abstract int head(Object value);
+
+  /**
+   * @return slot of an item matching value, or {@link #NO_SLOT}
+   */
+  final int find(Object value) {
+    return match(head(value), value);
+  }
+
+  /**
+   * @return next slot in the chain of an indexed slot, or {@link #NO_SLOT}
+   */
+  int next(int slot) {
+    return mVerify ? mNext[slot] : NO_SLOT;
+  }
+
+  /**
+   * @param value not {@link #find found}
+   */
+  abstract void put(Object value, int slot);
+
+  /**
+   * @param slot a slot currently indexed
+   */
+  abstract void remove(int slot);
+
+  abstract void clear();
+
+  /**
+   * @return key of an indexed slot, int keys widened
+   */
+  abstract long keyAt(int slot);
+
+  void ensureCapacity(int capacity) {
+    if (mVerify && capacity > mNext.length) {
+      mNext = Arrays.copyOf(mNext, capacity);
+    }
+  }
+
+  /**
+   * owner slot values, read for equals verification, owner re-binds after growing
+   */
+  void bindValues(Object[] values) {
+    mValues = values;
+  }
+
+  // item of chain starting at head matching value
+  int match(int head, Object value) {
+    if (!mVerify || head == NO_SLOT) {
+      return head;
+    }
+    for (int slot = head; slot != NO_SLOT; slot = mNext[slot]) {
+      Object item = mValues[slot];
+      if (item == null ? value == null : item.equals(value)) {
+        return slot;
+      }
+    }
+    return NO_SLOT;
+  }
+
+  boolean inChain(int head, int slot) {
+    if (!mVerify) {
+      return head == slot;
+    }
+    for (int s = head; s != NO_SLOT; s = mNext[s]) {
+      if (s == slot) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * add slot to the chain of head
+   * @return new head
+   */
+  int link(int head, int slot) {
+    if (mVerify) {
+      mNext[slot] = head;
+    }
+    return slot;
+  }
+
+  /**
+   * drop slot from the chain of head
+   * @return new head, {@link #NO_SLOT} when the chain is empty
+   */
+  int unlink(int head, int slot) {
+    if (!mVerify) {
+      return NO_SLOT;
+    }
+    if (head == slot) {
+      return mNext[slot];
+    }
+    for (int prev = head; prev != NO_SLOT; prev = mNext[prev]) {
+      if (mNext[prev] == slot) {
+        mNext[prev] = mNext[slot];
+        break;
+      }
+    }
+    return head;
+  }
+}
@@ -2,54 +2,183 @@ package me.littlekey.base.utils;
 
 import android.support.annotation.NonNull;
 
-import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import me.littlekey.base.ReadOnlyList;
 
 /**
  * order, hash, set data structure, not thread safe
  * implements {@link List} and {@link ListIterator}
+ * <p>
+ * storage is primitive, no element boxing:
+ * values live in slots ({@code Object[]}), a {@link KeyIndex} maps key to slot
+ * and an {@code int[]} keeps slot order by position. free slots are kept on an int stack
+ * and reused first.
+ * <p>
+ * keys are {@link #getIntKey(Object)} ints by default, equal keys mean duplicate items.
+ * for large id spaces pass a {@link LongKeyExtractor} (e.g. server ids) to key by primitive
+ * long, and / or verifyEquals so that items with equal keys but !{@link Object#equals} are
+ * chained instead of silently dropped. lookups stay O(1) either way.
+ * <p>
+ * position order is kept by one of {@link Ordering}:
+ * <ul>
+ *   <li>{@link Ordering#ARRAY} O(1) get, O(n) positional add / remove / indexOf</li>
+ *   <li>{@link Ordering#TREE} O(log n) get, positional add / remove / indexOf</li>
+ * </ul>
+ * {@link #contains} is O(1) in both.
+ * <p>
+ * {@link #view()} and {@link #subList} index straight into the storage without copying,
+ * {@link #getItems()} is the snapshot copy.
+ * {@link #addSortedIndex} keeps the same items sorted by a comparator as well, without a copy.
+ * <p>
+ * retained bytes per element (32-bit refs, 8 byte object alignment, amortized growth):
+ * <pre>
+ *   old HashMap&lt;Integer, V&gt; + ArrayList&lt;Integer&gt;
+ *     Integer                    16
+ *     HashMap.Node               32
+ *     HashMap table (0.75 load)  ~5.3 .. 10.7
+ *     ArrayList slot (1.5 grow)  ~4 .. 6
+ *     total                      ~57 .. 65, 2 objects
+ *   this
+ *     IntIntMap (0.75 load)      ~10.7 .. 21.3
+ *     slot key int[]             ~4 .. 6 (long[] ~8 .. 12 for {@link LongKeyExtractor})
+ *     slot value Object[]        ~4 .. 6
+ *     order int[]                ~4 .. 6
+ *     total                      ~23 .. 39, 0 objects
+ *   {@link Ordering#TREE} adds 5 int[] of node links, ~20 .. 30 more, still 0 objects
+ *   verifyEquals adds 1 int[] collision chain, ~4 .. 6 more
+ * </pre>
  * Created by littlekey on 15/8/10.
  */
 public class LinkedHashTreeSet<V> implements List<V> {
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final int NO_SLOT = KeyIndex.NO_SLOT;
+
+  // item -> slot
+  private KeyIndex mKeys;
+  private Object[] mSlotValues;
+  private int mSlotCount;
+  // stack of removed slots, allocated on first remove
+  private int[] mFreeSlots;
+  private int mFreeCount;
+  // position -> slot
+  private PositionIndex mPositions;
+  // structural modification count, for fail fast views and iterators
+  private int mModCount;
+  // chained through SortedIndex.mNext
+  private SortedIndex<V> mSortedIndexes;
 
-  private HashMap<Integer, V> mHashMap;
-  private ArrayList<Integer> mPositionList;
+  public enum Ordering {
+    /** int[] order, best for append mostly lists */
+    ARRAY,
+    /** order statistic tree, best for prepend / middle insert and remove on large lists */
+    TREE
+  }
+
+  /**
+   * primitive long key of an item, must be consistent with {@link Object#equals}
+   * the same way {@link #getIntKey(Object)} is, never called with null
+   */
+  public interface LongKeyExtractor {
+    long getKey(Object value);
+  }
 
   /**
    * must be call this constructor for initialize
    */
   public LinkedHashTreeSet() {
-    mHashMap = new HashMap<>();
-    mPositionList = new ArrayList<>();
+    this(DEFAULT_CAPACITY);
+  }
+
+  public LinkedHashTreeSet(int initialCapacity) {
+    this(initialCapacity, Ordering.ARRAY);
+  }
+
+  public LinkedHashTreeSet(Ordering ordering) {
+    this(DEFAULT_CAPACITY, ordering);
+  }
+
+  public LinkedHashTreeSet(int initialCapacity, Ordering ordering) {
+    this(initialCapacity, ordering, null, false);
+  }
+
+  /**
+   * @param extractor long keys instead of {@link #getIntKey(Object)}, null for int keys
+   * @param verifyEquals chain items with equal keys unless they are also equal
+   */
+  public LinkedHashTreeSet(int initialCapacity, Ordering ordering,
+                           LongKeyExtractor extractor, boolean verifyEquals) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("initialCapacity: " + initialCapacity);
+    }
+    initialCapacity = Math.max(initialCapacity, DEFAULT_CAPACITY);
+    mKeys = extractor == null
+        ? new IntKeyIndex(this, initialCapacity, verifyEquals)
+        : new LongKeyIndex(extractor, initialCapacity, verifyEquals);
+    mSlotValues = new Object[initialCapacity];
+    mKeys.bindValues(mSlotValues);
+    mPositions = ordering == Ordering.TREE
+        ? new PositionTree(initialCapacity) : new PositionArray(initialCapacity);
   }
 
   public LinkedHashTreeSet(List<V> data) {
-    this();
+    this(data.size());
     addAll(data);
   }
 
   @Override
   public int hashCode() {
-    return mHashMap.hashCode() + mPositionList.hashCode();
+    int hash = 1;
+    int size = mPositions.size();
+    for (int i = 0, slot = firstSlot(); i < size; slot = mPositions.nextSlot(i++, slot)) {
+      Object value = mSlotValues[slot];
+      hash = 31 * hash + (value == null ? 0 : value.hashCode());
+    }
+    return hash;
   }
 
   @Override
   public boolean equals(Object object) {
-    return object instanceof LinkedHashTreeSet &&
-        mHashMap.equals(((LinkedHashTreeSet)object).mHashMap) &&
-        mPositionList.equals(((LinkedHashTreeSet)object).mPositionList);
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof LinkedHashTreeSet)) {
+      return false;
+    }
+    LinkedHashTreeSet<?> other = (LinkedHashTreeSet<?>) object;
+    int size = mPositions.size();
+    if (size != other.mPositions.size()) {
+      return false;
+    }
+    for (int i = 0, slot = firstSlot(), otherSlot = other.firstSlot(); i < size;
+        slot = mPositions.nextSlot(i, slot), otherSlot = other.mPositions.nextSlot(i, otherSlot), ++i) {
+      Object value = mSlotValues[slot];
+      Object otherValue = other.mSlotValues[otherSlot];
+      if (value == null ? otherValue != null : !value.equals(otherValue)) {
+        return false;
+      }
+    }
+    return true;
   }
 
+  /**
+   * @return read only view of [start, end), no copy, see {@link #view(int, int)}
+   */
   @Override
   @NonNull
-  public List<V> subList(int start, int end) {
-    return getItems().subList(start, end);
+  public LinkedTreeView<V> subList(int start, int end) {
+    return view(start, end);
   }
 
   @Override
@@ -63,26 +192,29 @@ public class LinkedHashTreeSet<V> implements List<V> {
   }
 
   @Override
+  @NonNull
   public LinkedTreeIterator<V> listIterator() {
     return new LinkedTreeIterator<>(this);
   }
 
   @Override
   @NonNull
-  public ListIterator<V> listIterator(int location) {
+  public LinkedTreeIterator<V> listIterator(int location) {
     return new LinkedTreeIterator<>(this, location);
   }
 
   @Override
   @NonNull
   public Object[] toArray() {
-    return getItems().toArray();
+    Object[] array = new Object[size()];
+    copyValues(0, array, array.length);
+    return array;
   }
 
   @Override
   @NonNull
   public <T> T[] toArray(@NonNull T[] array) {
-    return getItems().toArray(array);
+    return copyValues(0, size(), array);
   }
 
   @Override
@@ -94,246 +226,827 @@ public class LinkedHashTreeSet<V> implements List<V> {
   @Override
   public boolean contains(Object object) {
     // O(1)
-    return mHashMap.containsKey(getKey(object));
+    int slot = mKeys.find(object);
+    if (slot == NO_SLOT) {
+      return false;
+    }
+    onSlotAccessed(slot);
+    return true;
   }
 
   @Override
   public int lastIndexOf(Object object) {
-    return mPositionList.lastIndexOf(getKey(object));
+    int slot = mKeys.find(object);
+    // keys are unique, first index is the last one
+    return slot == NO_SLOT ? -1 : mPositions.positionOf(slot);
   }
 
   @Override
   public boolean isEmpty() {
-    return mPositionList.isEmpty();
+    return mPositions.size() == 0;
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public V get(int position) {
-    Integer key = mPositionList.get(position);
-    return mHashMap.get(key);
+    checkPosition(position);
+    int slot = mPositions.slotAt(position);
+    onSlotAccessed(slot);
+    return (V) mSlotValues[slot];
   }
 
   @Override
   public void clear() {
-    mPositionList.clear();
-    mHashMap.clear();
+    mKeys.clear();
+    Arrays.fill(mSlotValues, 0, mSlotCount, null);
+    mSlotCount = 0;
+    mFreeCount = 0;
+    mPositions.clear();
+    ++mModCount;
+    cleared();
+    onModified(0);
   }
 
   @Override
   public int size() {
-    return mPositionList.size();
+    return mPositions.size();
   }
 
   @Override
   public int indexOf(Object value) {
-    return mPositionList.indexOf(getKey(value));
+    int slot = mKeys.find(value);
+    return slot == NO_SLOT ? -1 : mPositions.positionOf(slot);
   }
 
+  /**
+   * replace item at position, not a structural modification
+   * @throws IllegalArgumentException key of value already at another position
+   */
   @Override
+  @SuppressWarnings("unchecked")
   public V set(int position, V value) {
-    throw new UnsupportedOperationException();
+    checkPosition(position);
+    int slot = mPositions.slotAt(position);
+    int existing = mKeys.find(value);
+    if (existing != NO_SLOT && existing != slot) {
+      throw new IllegalArgumentException("duplicate key at position " + mPositions.positionOf(existing));
+    }
+    V old = (V) mSlotValues[slot];
+    if (existing == NO_SLOT) {
+      mKeys.remove(slot);
+      mSlotValues[slot] = value;
+      mKeys.put(value, slot);
+    } else {
+      mSlotValues[slot] = value;
+    }
+    slotRemoved(slot, old);
+    slotAdded(slot);
+    onModified(position);
+    return old;
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public V remove(int position) {
-    return mHashMap.remove(mPositionList.remove(position));
+    checkPosition(position);
+    int slot = mPositions.removeAt(position);
+    ++mModCount;
+    onModified(position);
+    V value = (V) mSlotValues[slot];
+    mKeys.remove(slot);
+    slotRemoved(slot, value);
+    freeSlot(slot);
+    return value;
   }
 
   @Override
   public boolean remove(Object object) {
-    return mPositionList.remove(getKey(mHashMap.remove(object)));
+    int position = indexOf(object);
+    if (position == -1) {
+      return false;
+    }
+    remove(position);
+    return true;
   }
 
   @Override
   public boolean add(V value) {
-    Integer key = getKey(value);
-    if (!mHashMap.containsKey(key)) {
-      mHashMap.put(key, value);
-      mPositionList.add(key);
-    }
+    insert(mPositions.size(), value);
     return true;
   }
 
   @Override
   public void add(int position, V value) {
-    Integer key = getKey(value);
-    if (!mHashMap.containsKey(key)) {
-      mHashMap.put(key, value);
-      mPositionList.add(position, key);
+    if (position < 0 || position > size()) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + size());
     }
+    insert(position, value);
   }
 
+  /**
+   * O(n + m): items of list are looked up by key once, order is compacted in a single pass.
+   * matches by key like {@link #contains}, not by list.contains
+   */
   @Override
   public boolean removeAll(@NonNull Collection<?> list) {
-    boolean rlt = false;
-    LinkedTreeIterator iter = listIterator();
-    while (iter.hasNext()) {
-      Object value = iter.next();
-      if (list.contains(value)) {
-        rlt = true;
-        iter.remove();
-      }
+    if (list.isEmpty() || isEmpty()) {
+      return false;
     }
-    return rlt;
+    boolean[] marked = new boolean[mSlotValues.length];
+    return mark(list, marked) > 0 && removeSlots(marked, true);
   }
 
+  /**
+   * O(n + m), see {@link #removeAll}
+   */
   @Override
   public boolean retainAll(@NonNull Collection<?> list) {
-    boolean rlt = false;
-    LinkedTreeIterator iter = listIterator();
-    while (iter.hasNext()) {
-      Object value = iter.next();
-      if (!list.contains(value)) {
-        rlt = true;
-        iter.remove();
-      }
+    if (isEmpty()) {
+      return false;
     }
-    return rlt;
+    boolean[] marked = new boolean[mSlotValues.length];
+    return mark(list, marked) < size() && removeSlots(marked, false);
   }
 
   @Override
   public boolean addAll(@NonNull Collection<? extends V> list) {
-    if (list.isEmpty()) {
-      return false;
-    }
-    for (V e: list) {
-      add(e);
-    }
-    return true;
+    return addAll(size(), list);
   }
 
+  /**
+   * absent items are spliced in as one block, O(n + m) for {@link Ordering#ARRAY},
+   * O(m + log n) for {@link Ordering#TREE}
+   */
   @Override
   public boolean addAll(int position, @NonNull Collection<? extends V> list) {
+    if (position < 0 || position > size()) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + size());
+    }
     if (list.isEmpty()) {
       return false;
     }
+    ensureCapacity(size() + list.size());
+    int[] block = new int[list.size()];
+    int count = 0;
     for (V e: list) {
-      add(position++, e);
+      // also drops duplicates inside list, earlier ones are indexed already
+      int existing = mKeys.find(e);
+      if (existing == NO_SLOT) {
+        int slot = allocSlot();
+        mSlotValues[slot] = e;
+        mKeys.put(e, slot);
+        block[count++] = slot;
+        slotAdded(slot);
+      } else {
+        onSlotAccessed(existing);
+      }
+    }
+    if (count > 0) {
+      mPositions.insertAll(position, block, count);
+      ++mModCount;
+      onModified(position);
     }
     return true;
   }
 
+  /**
+   * visit items in order without an iterator, steps slot to slot
+   * @throws ConcurrentModificationException visitor modified the set structurally
+   */
+  @SuppressWarnings("unchecked")
+  public void visitAll(Visitor<? super V> visitor) {
+    int expectedModCount = mModCount;
+    int size = mPositions.size();
+    for (int i = 0, slot = firstSlot(); i < size; slot = mPositions.nextSlot(i++, slot)) {
+      visitor.visit((V) mSlotValues[slot]);
+      if (mModCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  /**
+   * @return snapshot copy of items, use {@link #view()} when a live read is enough
+   */
+  @SuppressWarnings("unchecked")
   public List<V> getItems() {
-    Iterator<Integer> iter = mPositionList.iterator();
-    ArrayList<V> result = new ArrayList<>();
-    while (iter.hasNext()) {
-      result.add(mHashMap.get(iter.next()));
+    int size = mPositions.size();
+    ArrayList<V> result = new ArrayList<>(size);
+    for (int i = 0, slot = firstSlot(); i < size; slot = mPositions.nextSlot(i++, slot)) {
+      result.add((V) mSlotValues[slot]);
     }
     return result;
   }
 
   /**
-   * Override this method to custom Hash Algorithm {@link Object#hashCode()}
+   * read only, {@link RandomAccess} live view over the whole set, no copy.
+   * always reflects the current content, its iterators are fail fast.
+   */
+  public LinkedTreeView<V> view() {
+    return new LinkedTreeView<>(this, 0, LinkedTreeView.UNBOUNDED);
+  }
+
+  /**
+   * read only, {@link RandomAccess} view of [start, end), no copy.
+   * fail fast: any structural modification of this set invalidates it.
+   */
+  public LinkedTreeView<V> view(int start, int end) {
+    if (start < 0 || end > size() || start > end) {
+      throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", size: " + size());
+    }
+    return new LinkedTreeView<>(this, start, end - start);
+  }
+
+  /**
+   * grow storage up front, avoids repeated rehash when a big page is coming
+   * @param capacity expected element count
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > mSlotValues.length) {
+      growSlots(capacity);
+    }
+  }
+
+  /**
+   * Override this method to custom Hash Algorithm {@link Object#hashCode()},
+   * not used when constructed with a {@link LongKeyExtractor}.
+   * primitive, every add / contains / indexOf / remove goes through it without boxing
+   * @param value hashable object, never null, null items are kept apart
+   * @return int hash value
+   */
+  public int getIntKey(Object value) {
+    return value.hashCode();
+  }
+
+  /**
+   * boxed {@link #getIntKey}, kept for compatibility. subclasses overriding it are still
+   * honoured, at the cost of one Integer per operation
    * @param value hashable object
    * @return {@link Integer} hash value
    */
   public Integer getKey(Object value) {
-    return value != null ? value.hashCode() : null;
+    return value != null ? getIntKey(value) : null;
+  }
+
+  // true when type, or a class between it and base, still overrides the boxed getKey
+  static boolean overridesKey(Class<?> type, Class<?> base) {
+    try {
+      return type.getMethod("getKey", Object.class).getDeclaringClass() != base;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private void insert(int position, V value) {
+    int existing = mKeys.find(value);
+    if (existing != NO_SLOT) {
+      onSlotAccessed(existing);
+      return;
+    }
+    int slot = allocSlot();
+    mSlotValues[slot] = value;
+    mKeys.put(value, slot);
+    mPositions.insert(position, slot);
+    ++mModCount;
+    slotAdded(slot);
+    onModified(position);
+  }
+
+  /**
+   * secondary order by comparator, maintained on every add / remove / set from now on.
+   * O(n log n) to build over the current items, O(log n) per change after that
+   */
+  public SortedIndex<V> addSortedIndex(@NonNull Comparator<? super V> comparator) {
+    SortedIndex<V> index = new SortedIndex<>(this, comparator);
+    index.mNext = mSortedIndexes;
+    mSortedIndexes = index;
+    return index;
+  }
+
+  /**
+   * stop maintaining index, it must not be used anymore
+   */
+  public boolean removeSortedIndex(SortedIndex<V> index) {
+    for (SortedIndex<V> previous = null, current = mSortedIndexes; current != null;
+        previous = current, current = current.mNext) {
+      if (current == index) {
+        if (previous == null) {
+          mSortedIndexes = current.mNext;
+        } else {
+          previous.mNext = current.mNext;
+        }
+        current.mNext = null;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void slotAdded(int slot) {
+    for (SortedIndex<V> index = mSortedIndexes; index != null; index = index.mNext) {
+      index.onSlotAdded(slot);
+    }
+    onSlotAdded(slot);
+  }
+
+  private void slotRemoved(int slot, Object value) {
+    for (SortedIndex<V> index = mSortedIndexes; index != null; index = index.mNext) {
+      index.onSlotRemoved(slot);
+    }
+    onSlotRemoved(slot, value);
+  }
+
+  private void cleared() {
+    for (SortedIndex<V> index = mSortedIndexes; index != null; index = index.mNext) {
+      index.onCleared();
+    }
+    onCleared();
   }
 
+  /**
+   * hook for siblings in this package, called after every modification
+   * @param position lowest position whose item may have changed
+   */
+  void onModified(int position) {}
+
+  /**
+   * hook, slot now holds an item, during a block add it has no position yet
+   */
+  void onSlotAdded(int slot) {}
+
+  /**
+   * hook, value left slot, called before the slot is freed
+   */
+  void onSlotRemoved(int slot, Object value) {}
+
+  /**
+   * hook, item in slot was read by {@link #get}, {@link #contains} or added again
+   */
+  void onSlotAccessed(int slot) {}
+
+  /**
+   * hook, every slot was dropped without {@link #onSlotRemoved}
+   */
+  void onCleared() {}
+
+  void copyValues(int start, Object[] dest, int count) {
+    Object[] values = mSlotValues;
+    for (int i = 0, slot = count == 0 ? NO_SLOT : mPositions.slotAt(start); i < count;
+        slot = mPositions.nextSlot(start + i, slot), ++i) {
+      dest[i] = values[slot];
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T[] copyValues(int start, int count, T[] array) {
+    if (array.length < count) {
+      array = (T[]) Array.newInstance(array.getClass().getComponentType(), count);
+    } else if (array.length > count) {
+      array[count] = null;
+    }
+    copyValues(start, array, count);
+    return array;
+  }
+
+  // @return distinct slots marked
+  private int mark(Collection<?> list, boolean[] marked) {
+    int count = 0;
+    for (Object o: list) {
+      int slot = mKeys.find(o);
+      if (slot != NO_SLOT && !marked[slot]) {
+        marked[slot] = true;
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * one pass compaction
+   * @param marked by slot
+   * @param removeMarked remove marked slots, or all unmarked
+   */
+  boolean removeSlots(boolean[] marked, boolean removeMarked) {
+    int[] order = slotOrder();
+    int kept = 0;
+    int first = -1;
+    for (int i = 0; i < order.length; ++i) {
+      int slot = order[i];
+      if (marked[slot] == removeMarked) {
+        if (first == -1) {
+          first = i;
+        }
+        mKeys.remove(slot);
+        slotRemoved(slot, mSlotValues[slot]);
+        freeSlot(slot);
+      } else {
+        order[kept++] = slot;
+      }
+    }
+    if (first == -1) {
+      return false;
+    }
+    mPositions.rebuild(order, kept);
+    ++mModCount;
+    onModified(first);
+    return true;
+  }
+
+  /**
+   * @return slot of an item matching value, or -1
+   */
+  int slotOf(Object value) {
+    return mKeys.find(value);
+  }
+
+  /**
+   * @return first slot of an item with the key of value, equal to it or not, or -1
+   */
+  int firstSlotWithKey(Object value) {
+    return mKeys.head(value);
+  }
+
+  /**
+   * @return next slot of an item with the same key, or -1, only verifyEquals sets chain them
+   */
+  int nextSlotWithKey(int slot) {
+    return mKeys.next(slot);
+  }
+
+  /**
+   * @return slots in position order
+   */
+  int[] slotOrder() {
+    int size = mPositions.size();
+    int[] slots = new int[size];
+    for (int i = 0, slot = firstSlot(); i < size; slot = mPositions.nextSlot(i++, slot)) {
+      slots[i] = slot;
+    }
+    return slots;
+  }
+
+  int slotCapacity() {
+    return mSlotValues.length;
+  }
+
+  int positionOfSlot(int slot) {
+    return mPositions.positionOf(slot);
+  }
+
+  int firstSlot() {
+    return mPositions.size() == 0 ? NO_SLOT : mPositions.slotAt(0);
+  }
+
+  int nextSlot(int position, int slot) {
+    return mPositions.nextSlot(position, slot);
+  }
+
+  Object valueAt(int slot) {
+    return mSlotValues[slot];
+  }
+
+  long keyAt(int slot) {
+    return mKeys.keyAt(slot);
+  }
+
+  boolean hasLongKeys() {
+    return mKeys instanceof LongKeyIndex;
+  }
+
+  private int allocSlot() {
+    if (mFreeCount > 0) {
+      return mFreeSlots[--mFreeCount];
+    }
+    if (mSlotCount == mSlotValues.length) {
+      growSlots(grow(mSlotCount));
+    }
+    return mSlotCount++;
+  }
+
+  private void freeSlot(int slot) {
+    mSlotValues[slot] = null;
+    if (mFreeSlots == null || mFreeCount == mFreeSlots.length) {
+      mFreeSlots = Arrays.copyOf(mFreeSlots == null ? new int[0] : mFreeSlots, grow(mFreeCount));
+    }
+    mFreeSlots[mFreeCount++] = slot;
+  }
+
+  private void growSlots(int capacity) {
+    mSlotValues = Arrays.copyOf(mSlotValues, capacity);
+    mKeys.bindValues(mSlotValues);
+    mKeys.ensureCapacity(capacity);
+    mPositions.ensureCapacity(capacity);
+  }
+
+  private void checkPosition(int position) {
+    if (position < 0 || position >= size()) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + size());
+    }
+  }
+
+  private static int grow(int capacity) {
+    return Math.max(DEFAULT_CAPACITY, capacity + (capacity >> 1));
+  }
+
+  /**
+   * fail fast {@link ListIterator}, steps slot to slot, O(1) per step for both orderings
+   * (amortized for {@link Ordering#TREE}) instead of a positional lookup.
+   * modifications through the iterator keep it valid, any other structural modification makes
+   * the next step throw {@link ConcurrentModificationException}.
+   * {@link #add} keeps the set's semantics: an item whose key is already present is not inserted
+   * and the cursor does not move.
+   */
   public static final class LinkedTreeIterator<V> implements ListIterator<V> {
+    private final LinkedHashTreeSet<V> mSet;
+    private int mExpectedModCount;
+    private int mSize;
+    // position of the item next() returns
+    private int mCursor;
+    // position of the item last returned by next() / previous(), -1 after add / remove
+    private int mLastReturned = -1;
+    // last visited slot and its position, the next step starts from there
+    private int mSlot = NO_SLOT;
+    private int mSlotPosition = -1;
+
+    public LinkedTreeIterator(LinkedHashTreeSet<V> set) {
+      this(set, 0);
+    }
 
     /**
-     * {@link LinkedTreeIterator#dirty}
-     * for mark already {@link LinkedTreeIterator#remove} or {@link LinkedTreeIterator#add}
-     * {@link LinkedTreeIterator#next}
+     * @param location position of the first item {@link #next} returns, 0 .. size
      */
-    private boolean dirty = false;
-    private int mIndex;
-    private WeakReference<LinkedHashTreeSet<V>> mWeakRefLinkedSet;
+    public LinkedTreeIterator(LinkedHashTreeSet<V> set, int location) {
+      if (location < 0 || location > set.size()) {
+        throw new IndexOutOfBoundsException("location: " + location + ", size: " + set.size());
+      }
+      mSet = set;
+      mCursor = location;
+      sync();
+    }
 
-    public LinkedTreeIterator(LinkedHashTreeSet<V> set) {
-      this(set, -1);
+    @Override
+    public boolean hasNext() {
+      return mCursor < mSize;
     }
 
-    public LinkedTreeIterator(LinkedHashTreeSet<V> set, int location) {
-      mWeakRefLinkedSet = new WeakReference<>(set);
-      mIndex = location;
+    @Override
+    public V next() {
+      checkModCount();
+      if (mCursor >= mSize) {
+        throw new NoSuchElementException();
+      }
+      mLastReturned = mCursor++;
+      return valueAt(mLastReturned);
     }
 
     @Override
-    public void set(V object) {
-      LinkedHashTreeSet<V> set = mWeakRefLinkedSet.get();
-      if (set != null) {
-        set.set(mIndex, object);
+    public boolean hasPrevious() {
+      return mCursor > 0;
+    }
+
+    @Override
+    public V previous() {
+      checkModCount();
+      if (mCursor <= 0) {
+        throw new NoSuchElementException();
       }
+      mLastReturned = --mCursor;
+      return valueAt(mLastReturned);
     }
 
     @Override
     public int nextIndex() {
-      LinkedHashTreeSet<V> set = mWeakRefLinkedSet.get();
-      if (set != null) {
-        return Math.max(mIndex + 1, set.size());
-      }
-      throw new NoSuchElementException();
+      return mCursor;
     }
 
-    /** @hide */
     @Override
     public int previousIndex() {
-//      LinkedHashTreeSet<V> set = mWeakRefLinkedSet.get();
-//      if (set != null) {
-//        return Math.max(mIndex - 1, -1);
-//      }
-//      throw new NoSuchElementException();
-      throw new UnsupportedOperationException();
+      return mCursor - 1;
     }
 
     @Override
-    public V next() {
-      LinkedHashTreeSet<V> set = mWeakRefLinkedSet.get();
-      if (set != null && hasNext()) {
-        dirty = false;
-        return set.get(++mIndex);
+    public void remove() {
+      if (mLastReturned < 0) {
+        throw new IllegalStateException();
       }
-      throw new NoSuchElementException();
+      checkModCount();
+      mSet.remove(mLastReturned);
+      if (mLastReturned < mCursor) {
+        --mCursor;
+      }
+      mLastReturned = -1;
+      sync();
     }
 
     @Override
-    public void add(V object) {
-      LinkedHashTreeSet<V> set = mWeakRefLinkedSet.get();
-      if (mIndex == -1 || dirty || set == null) {
+    public void set(V object) {
+      if (mLastReturned < 0) {
         throw new IllegalStateException();
       }
-      dirty = true;
-      set.add(mIndex++, object);
+      checkModCount();
+      mSet.set(mLastReturned, object);
+      sync();
     }
 
-    /** @hide */
     @Override
-    public boolean hasPrevious() {
-//      return mWeakRefLinkedSet.get() != null && mIndex > 0;
-      throw new UnsupportedOperationException();
+    public void add(V object) {
+      checkModCount();
+      int size = mSet.size();
+      mSet.add(mCursor, object);
+      if (mSet.size() > size) {
+        ++mCursor;
+      }
+      mLastReturned = -1;
+      sync();
+    }
+
+    /**
+     * visit the remaining items, fail fast like {@link #next}
+     */
+    public void visitRemaining(Visitor<? super V> visitor) {
+      while (mCursor < mSize) {
+        visitor.visit(next());
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int position) {
+      int slot;
+      PositionIndex positions = mSet.mPositions;
+      if (mSlot != NO_SLOT && position == mSlotPosition + 1) {
+        slot = positions.nextSlot(mSlotPosition, mSlot);
+      } else if (mSlot != NO_SLOT && position == mSlotPosition - 1) {
+        slot = positions.prevSlot(mSlotPosition, mSlot);
+      } else if (mSlot != NO_SLOT && position == mSlotPosition) {
+        slot = mSlot;
+      } else {
+        slot = positions.slotAt(position);
+      }
+      mSlot = slot;
+      mSlotPosition = position;
+      return (V) mSet.mSlotValues[slot];
+    }
+
+    // after a write through this iterator, subclasses may have evicted or shifted items
+    private void sync() {
+      mExpectedModCount = mSet.mModCount;
+      mSize = mSet.size();
+      mSlot = NO_SLOT;
+      mSlotPosition = -1;
+    }
+
+    private void checkModCount() {
+      if (mSet.mModCount != mExpectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  public interface Visitor<V> {
+    void visit(V value);
+  }
+
+  /**
+   * read only {@link RandomAccess} view, indexes straight into {@link LinkedHashTreeSet} storage.
+   * bounds checked, fail fast with {@link ConcurrentModificationException}.
+   */
+  public static final class LinkedTreeView<V> extends AbstractList<V>
+      implements RandomAccess, ReadOnlyList<V> {
+    static final int UNBOUNDED = -1;
+
+    private final LinkedHashTreeSet<V> mSet;
+    private final int mOffset;
+    // UNBOUNDED for a live view over the whole set
+    private final int mLength;
+    private final int mExpectedModCount;
+
+    LinkedTreeView(LinkedHashTreeSet<V> set, int offset, int length) {
+      mSet = set;
+      mOffset = offset;
+      mLength = length;
+      mExpectedModCount = set.mModCount;
     }
 
     @Override
-    public void remove() {
-      LinkedHashTreeSet<V> set = mWeakRefLinkedSet.get();
-      if (mIndex == -1 || dirty || set == null) {
-        throw new IllegalStateException();
+    public int size() {
+      if (mLength == UNBOUNDED) {
+        return mSet.size();
       }
-      dirty = true;
-      set.remove(mIndex--);
+      checkModCount();
+      return mLength;
     }
 
-    /** @hide */
     @Override
-    public V previous() {
-//      LinkedHashTreeSet<V> set = mWeakRefLinkedSet.get();
-//      if (set != null && hasPrevious()) {
-//        dirty = false;
-//        return set.get(--mIndex);
-//      }
-//      throw new NoSuchElementException();
-      throw new UnsupportedOperationException();
+    @SuppressWarnings("unchecked")
+    public V get(int position) {
+      int size = size();
+      if (position < 0 || position >= size) {
+        throw new IndexOutOfBoundsException("position: " + position + ", size: " + size);
+      }
+      return (V) mSet.mSlotValues[mSet.mPositions.slotAt(mOffset + position)];
+    }
+
+    @Override
+    public V getItem(int position) {
+      return get(position);
+    }
+
+    @Override
+    public boolean contains(Object object) {
+      if (mLength == UNBOUNDED) {
+        return mSet.contains(object);
+      }
+      int position = mSet.indexOf(object);
+      return position >= mOffset && position < mOffset + size();
+    }
+
+    @Override
+    public int indexOf(Object object) {
+      int position = mSet.indexOf(object);
+      return position >= mOffset && position < mOffset + size() ? position - mOffset : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object object) {
+      return indexOf(object);
+    }
+
+    @Override
+    @NonNull
+    public Object[] toArray() {
+      Object[] array = new Object[size()];
+      mSet.copyValues(mOffset, array, array.length);
+      return array;
+    }
+
+    @Override
+    @NonNull
+    public <T> T[] toArray(@NonNull T[] array) {
+      return mSet.copyValues(mOffset, size(), array);
+    }
+
+    @Override
+    @NonNull
+    public LinkedTreeView<V> subList(int start, int end) {
+      int size = size();
+      if (start < 0 || end > size || start > end) {
+        throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", size: " + size);
+      }
+      return new LinkedTreeView<>(mSet, mOffset + start, end - start);
+    }
+
+    @Override
+    @NonNull
+    public Iterator<V> iterator() {
+      return new ViewIterator<>(this);
+    }
+
+    private void checkModCount() {
+      if (mSet.mModCount != mExpectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  private static final class ViewIterator<V> implements Iterator<V> {
+    private final LinkedHashTreeSet<V> mSet;
+    private final int mEnd;
+    private final int mExpectedModCount;
+    private int mPosition;
+    private int mSlot = NO_SLOT;
+
+    ViewIterator(LinkedTreeView<V> view) {
+      mSet = view.mSet;
+      mPosition = view.mOffset;
+      mEnd = view.mOffset + view.size();
+      mExpectedModCount = mSet.mModCount;
     }
 
     @Override
     public boolean hasNext() {
-      LinkedHashTreeSet<V> set =mWeakRefLinkedSet.get();
-      return set != null && mIndex + 1 < set.size();
+      return mPosition < mEnd;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V next() {
+      if (mSet.mModCount != mExpectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (mPosition >= mEnd) {
+        throw new NoSuchElementException();
+      }
+      // step by successor, avoid a tree descent per element
+      mSlot = mSlot == NO_SLOT
+          ? mSet.mPositions.slotAt(mPosition) : mSet.mPositions.nextSlot(mPosition - 1, mSlot);
+      ++mPosition;
+      return (V) mSet.mSlotValues[mSlot];
     }
 
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
   }
 
 }
@@ -0,0 +1,328 @@
+package me.littlekey.base.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * keyed diff between two {@link LinkedHashTreeSet} versions.
+ * <p>
+ * items are matched by the old set's key index ({@link LinkedHashTreeSet#getIntKey(Object)} or its
+ * {@link LinkedHashTreeSet.LongKeyExtractor}), so there is no O(n * m) edit distance search:
+ * removes and inserts fall out of one O(1) lookup per new item, moves are the
+ * common items outside the longest increasing run of old positions, so untouched items never
+ * move. O(n + m) hashing plus O(k log k) for the k common items.
+ * <p>
+ * operations are ordered to be applied one after another, positions always refer to the
+ * list as it is after the previous operation, the same contract as RecyclerView adapter
+ * notifyItemRangeInserted / notifyItemRangeRemoved / notifyItemMoved / notifyItemRangeChanged.
+ * Created by littlekey on 26/10/18.
+ */
+public final class LinkedHashTreeSetDiff<V> {
+  public static final int INSERT = 1;
+  public static final int REMOVE = 2;
+  public static final int MOVE = 3;
+  public static final int CHANGE = 4;
+
+  private final List<Operation> mOperations;
+
+  private LinkedHashTreeSetDiff(List<Operation> operations) {
+    mOperations = operations;
+  }
+
+  /**
+   * items with the same key and !{@link Object#equals} are reported as {@link #CHANGE}, also in
+   * verifyEquals sets, where such an item is paired with an old one of its key not matched
+   * otherwise
+   */
+  public static <V> LinkedHashTreeSetDiff<V> calculate(
+      LinkedHashTreeSet<V> oldSet, LinkedHashTreeSet<V> newSet) {
+    return calculate(oldSet, newSet, null);
+  }
+
+  /**
+   * @param comparator decides {@link #CHANGE} of items with the same key, null for equals
+   */
+  public static <V> LinkedHashTreeSetDiff<V> calculate(
+      LinkedHashTreeSet<V> oldSet, LinkedHashTreeSet<V> newSet, ContentComparator<V> comparator) {
+    Object[] oldItems = oldSet.toArray();
+    Object[] newItems = newSet.toArray();
+    int oldSize = oldItems.length;
+    int newSize = newItems.length;
+
+    // old slot -> old position, new items find their old slot through the old set's key index
+    int[] slotToOld = new int[oldSet.slotCapacity()];
+    int[] oldSlots = oldSet.slotOrder();
+    for (int i = 0; i < oldSize; ++i) {
+      slotToOld[oldSlots[i]] = i;
+    }
+    int[] newToOld = new int[newSize];
+    int[] oldToNew = new int[oldSize];
+    Arrays.fill(oldToNew, -1);
+    for (int j = 0; j < newSize; ++j) {
+      int slot = oldSet.slotOf(newItems[j]);
+      int oldPosition = slot == -1 ? -1 : slotToOld[slot];
+      newToOld[j] = oldPosition;
+      if (oldPosition != -1) {
+        oldToNew[oldPosition] = j;
+      }
+    }
+    // with verifyEquals a replaced item no longer matches, pair it with a free old item of the
+    // same key so it comes out as a change, not a remove and an insert
+    for (int j = 0; j < newSize; ++j) {
+      if (newToOld[j] != -1) {
+        continue;
+      }
+      for (int slot = oldSet.firstSlotWithKey(newItems[j]); slot != -1;
+           slot = oldSet.nextSlotWithKey(slot)) {
+        int oldPosition = slotToOld[slot];
+        if (oldToNew[oldPosition] == -1) {
+          newToOld[j] = oldPosition;
+          oldToNew[oldPosition] = j;
+          break;
+        }
+      }
+    }
+
+    List<Operation> operations = new ArrayList<>();
+    // removes back to front, positions in front stay valid
+    for (int i = oldSize - 1; i >= 0; --i) {
+      if (oldToNew[i] == -1) {
+        int end = i;
+        while (i > 0 && oldToNew[i - 1] == -1) {
+          --i;
+        }
+        operations.add(new Operation(REMOVE, i, end - i + 1, -1, null));
+      }
+    }
+
+    // rank of common items in old order, read in new order
+    int[] oldRank = new int[oldSize];
+    int common = 0;
+    for (int i = 0; i < oldSize; ++i) {
+      if (oldToNew[i] != -1) {
+        oldRank[i] = common++;
+      }
+    }
+    boolean[] stays = longestIncreasingRun(newToOld, oldRank, common);
+
+    // replay on an order statistic tree whose node ids are new positions
+    PositionTree current = new PositionTree(Math.max(newSize, 1));
+    for (int i = 0; i < oldSize; ++i) {
+      if (oldToNew[i] != -1) {
+        current.insert(current.size(), oldToNew[i]);
+      }
+    }
+    Operation pendingInsert = null;
+    for (int j = 0; j < newSize; ++j) {
+      if (newToOld[j] == -1) {
+        int target = insertionPoint(current, j);
+        current.insert(target, j);
+        if (pendingInsert != null && pendingInsert.position + pendingInsert.count == target) {
+          pendingInsert.count++;
+        } else {
+          pendingInsert = new Operation(INSERT, target, 1, -1, newItems);
+          pendingInsert.source = j;
+          operations.add(pendingInsert);
+        }
+        continue;
+      }
+      pendingInsert = null;
+      if (!stays[j]) {
+        int from = current.positionOf(j);
+        int target = insertionPoint(current, j);
+        if (from < target) {
+          --target;
+        }
+        if (from != target) {
+          current.removeAt(from);
+          current.insert(target, j);
+          operations.add(new Operation(MOVE, from, 1, target, null));
+        }
+      }
+    }
+
+    // changes last, positions are final new positions
+    Operation pendingChange = null;
+    for (int j = 0; j < newSize; ++j) {
+      int oldPosition = newToOld[j];
+      if (oldPosition != -1 && changed(oldItems[oldPosition], newItems[j], comparator)) {
+        if (pendingChange != null && pendingChange.position + pendingChange.count == j) {
+          pendingChange.count++;
+        } else {
+          pendingChange = new Operation(CHANGE, j, 1, -1, newItems);
+          pendingChange.source = j;
+          operations.add(pendingChange);
+        }
+      } else {
+        pendingChange = null;
+      }
+    }
+    return new LinkedHashTreeSetDiff<>(Collections.unmodifiableList(operations));
+  }
+
+  public List<Operation> getOperations() {
+    return mOperations;
+  }
+
+  public boolean isEmpty() {
+    return mOperations.isEmpty();
+  }
+
+  /**
+   * dispatch operations in order, e.g. to adapter notifyItemXxx
+   */
+  public void dispatchTo(Callback callback) {
+    for (Operation operation : mOperations) {
+      switch (operation.type) {
+        case INSERT:
+          callback.onInserted(operation.position, operation.count);
+          break;
+        case REMOVE:
+          callback.onRemoved(operation.position, operation.count);
+          break;
+        case MOVE:
+          callback.onMoved(operation.position, operation.toPosition);
+          break;
+        case CHANGE:
+          callback.onChanged(operation.position, operation.count);
+          break;
+      }
+    }
+  }
+
+  /**
+   * patch set in place, set must hold the same keys in the same order as the old set of
+   * this diff, afterwards it holds the new set's items
+   */
+  @SuppressWarnings("unchecked")
+  public void applyTo(LinkedHashTreeSet<V> set) {
+    for (Operation operation : mOperations) {
+      switch (operation.type) {
+        case INSERT:
+          for (int i = 0; i < operation.count; ++i) {
+            set.add(operation.position + i, (V) operation.values[operation.source + i]);
+          }
+          break;
+        case REMOVE:
+          for (int i = operation.count - 1; i >= 0; --i) {
+            set.remove(operation.position + i);
+          }
+          break;
+        case MOVE:
+          set.add(operation.toPosition, set.remove(operation.position));
+          break;
+        case CHANGE:
+          for (int i = 0; i < operation.count; ++i) {
+            set.set(operation.position + i, (V) operation.values[operation.source + i]);
+          }
+          break;
+      }
+    }
+  }
+
+  // right after new position j - 1, every item in front of it is already in place
+  private static int insertionPoint(PositionTree current, int j) {
+    return j == 0 ? 0 : current.positionOf(j - 1) + 1;
+  }
+
+  private static <V> boolean changed(Object oldItem, Object newItem, ContentComparator<V> comparator) {
+    if (comparator != null) {
+      @SuppressWarnings("unchecked")
+      boolean same = comparator.areContentsTheSame((V) oldItem, (V) newItem);
+      return !same;
+    }
+    return oldItem == null ? newItem != null : !oldItem.equals(newItem);
+  }
+
+  /**
+   * patience sorting over old ranks of common items in new order
+   * @return for each new position, whether the item belongs to the longest increasing run
+   */
+  private static boolean[] longestIncreasingRun(int[] newToOld, int[] oldRank, int common) {
+    int newSize = newToOld.length;
+    boolean[] stays = new boolean[newSize];
+    // tails[l] = new position of smallest tail of an increasing run of length l + 1
+    int[] tails = new int[common];
+    int[] previous = new int[newSize];
+    int length = 0;
+    for (int j = 0; j < newSize; ++j) {
+      if (newToOld[j] == -1) {
+        continue;
+      }
+      int rank = oldRank[newToOld[j]];
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (oldRank[newToOld[tails[mid]]] < rank) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      previous[j] = low > 0 ? tails[low - 1] : -1;
+      tails[low] = j;
+      if (low == length) {
+        ++length;
+      }
+    }
+    for (int j = length > 0 ? tails[length - 1] : -1; j != -1; j = previous[j]) {
+      stays[j] = true;
+    }
+    return stays;
+  }
+
+  public interface ContentComparator<V> {
+    boolean areContentsTheSame(V oldItem, V newItem);
+  }
+
+  public interface Callback {
+    void onInserted(int position, int count);
+
+    void onRemoved(int position, int count);
+
+    void onMoved(int fromPosition, int toPosition);
+
+    void onChanged(int position, int count);
+  }
+
+  public static final class Operation {
+    /** {@link #INSERT}, {@link #REMOVE}, {@link #MOVE} or {@link #CHANGE} */
+    public final int type;
+    public final int position;
+    /** target position of {@link #MOVE}, -1 otherwise */
+    public final int toPosition;
+    int count;
+    // new items of INSERT / CHANGE, starting at values[source]
+    final Object[] values;
+    int source;
+
+    Operation(int type, int position, int count, int toPosition, Object[] values) {
+      this.type = type;
+      this.position = position;
+      this.count = count;
+      this.toPosition = toPosition;
+      this.values = values;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    @Override
+    public String toString() {
+      switch (type) {
+        case INSERT:
+          return "insert " + position + " +" + count;
+        case REMOVE:
+          return "remove " + position + " -" + count;
+        case MOVE:
+          return "move " + position + " -> " + toPosition;
+        default:
+          return "change " + position + " x" + count;
+      }
+    }
+  }
+}
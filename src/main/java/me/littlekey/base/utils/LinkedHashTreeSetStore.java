@@ -0,0 +1,342 @@
+package me.littlekey.base.utils;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+import me.littlekey.base.ReadOnlyList;
+import me.littlekey.base.primitive.LongIntMap;
+
+/**
+ * compact binary snapshot of a {@link LinkedHashTreeSet}: key order plus codec encoded values.
+ * <p>
+ * restore memory maps the file and only reads header and index up front, values are decoded on
+ * first {@link MappedSnapshot#getItem}, so the first screen renders before the rest is touched.
+ * <pre>
+ *   header, 32 bytes, big endian
+ *     int   magic 'LHTS'
+ *     int   version
+ *     int   flags, {@link #FLAG_LONG_KEYS}
+ *     int   count
+ *     long  index offset
+ *     int   index crc32
+ *     int   header crc32, of the 28 bytes above
+ *   records, back to back, codec bytes
+ *   index, count entries of 20 bytes, in position order
+ *     long  key
+ *     int   record offset
+ *     int   record length, -1 for a null item
+ *     int   record crc32
+ * </pre>
+ * header and index are verified on open, every record when it is decoded.
+ * Created by littlekey on 26/10/18.
+ */
+public final class LinkedHashTreeSetStore {
+  public static final int VERSION = 1;
+  public static final int FLAG_LONG_KEYS = 1;
+
+  private static final int MAGIC = 0x4C485453;
+  private static final int HEADER_SIZE = 32;
+  private static final int ENTRY_SIZE = 20;
+  private static final int NULL_LENGTH = -1;
+  private static final int STAGING_SIZE = 64 * 1024;
+  private static final int SCRATCH_SIZE = 8192;
+
+  // crc input, one per reading thread instead of one per record
+  private static final ThreadLocal<byte[]> sScratch = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[SCRATCH_SIZE];
+    }
+  };
+
+  private LinkedHashTreeSetStore() {}
+
+  public interface Codec<V> {
+    void encode(V value, DataOutput out) throws IOException;
+
+    /**
+     * @param in positioned at the record, limit at its end, only valid during this call
+     */
+    V decode(ByteBuffer in) throws IOException;
+  }
+
+  /**
+   * write set to file atomically, through a temp file and rename, the temp file is deleted
+   * when anything fails
+   */
+  public static <V> void write(LinkedHashTreeSet<V> set, File file, Codec<? super V> codec)
+      throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+    boolean written = false;
+    try {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      int count = set.size();
+      ByteBuffer index = ByteBuffer.allocate(count * ENTRY_SIZE);
+      ByteBuffer staging = ByteBuffer.allocate(STAGING_SIZE);
+      FileUtils.Bytes bytes = new FileUtils.Bytes();
+      DataOutputStream out = new DataOutputStream(bytes);
+      CRC32 crc = new CRC32();
+      long offset = HEADER_SIZE;
+      channel.position(HEADER_SIZE);
+
+      for (int i = 0, slot = set.firstSlot(); i < count; slot = set.nextSlot(i++, slot)) {
+        @SuppressWarnings("unchecked")
+        V value = (V) set.valueAt(slot);
+        if (value == null) {
+          index.putLong(0).putInt(0).putInt(NULL_LENGTH).putInt(0);
+          continue;
+        }
+        bytes.reset();
+        codec.encode(value, out);
+        out.flush();
+        int length = bytes.size();
+        if (offset + length > Integer.MAX_VALUE) {
+          throw new IOException("snapshot exceeds 2GB");
+        }
+        crc.reset();
+        crc.update(bytes.buffer(), 0, length);
+        index.putLong(set.keyAt(slot)).putInt((int) offset).putInt(length).putInt((int) crc.getValue());
+        if (length > staging.remaining()) {
+          FileUtils.flushStaging(channel, staging);
+        }
+        if (length > staging.capacity()) {
+          FileUtils.writeFully(channel, ByteBuffer.wrap(bytes.buffer(), 0, length));
+        } else {
+          staging.put(bytes.buffer(), 0, length);
+        }
+        offset += length;
+      }
+      FileUtils.flushStaging(channel, staging);
+
+      crc.reset();
+      crc.update(index.array(), 0, index.position());
+      int indexCrc = (int) crc.getValue();
+      index.flip();
+      FileUtils.writeFully(channel, index);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(set.hasLongKeys() ? FLAG_LONG_KEYS : 0)
+          .putInt(count).putLong(offset).putInt(indexCrc);
+      crc.reset();
+      crc.update(header.array(), 0, HEADER_SIZE - 4);
+      header.putInt((int) crc.getValue());
+      header.flip();
+      channel.position(0);
+      FileUtils.writeFully(channel, header);
+      channel.force(true);
+      written = true;
+    } finally {
+      try {
+        raf.close();
+      } finally {
+        if (!written) {
+          FileUtils.delete(temp);
+        }
+      }
+    }
+    if (!temp.renameTo(file)) {
+      FileUtils.delete(temp);
+      throw new IOException("rename " + temp + " to " + file + " failed");
+    }
+  }
+
+  /**
+   * map file and verify header and index, values stay undecoded
+   * @throws IOException unreadable, unknown version or corrupted header / index
+   */
+  public static <V> MappedSnapshot<V> open(File file, Codec<? extends V> codec) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    MappedByteBuffer buffer;
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("bad snapshot size " + size);
+      }
+      // mapping stays valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      raf.close();
+    }
+    byte[] scratch = sScratch.get();
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("not a snapshot: " + file);
+    }
+    int version = buffer.getInt(4);
+    if (version < 1 || version > VERSION) {
+      throw new IOException("unsupported snapshot version " + version);
+    }
+    if (crc(buffer, 0, HEADER_SIZE - 4, scratch) != buffer.getInt(HEADER_SIZE - 4)) {
+      throw new IOException("snapshot header corrupted");
+    }
+    int flags = buffer.getInt(8);
+    int count = buffer.getInt(12);
+    long indexOffset = buffer.getLong(16);
+    if (count < 0 || indexOffset < HEADER_SIZE
+        || indexOffset + (long) count * ENTRY_SIZE > buffer.capacity()) {
+      throw new IOException("snapshot index out of bounds");
+    }
+    if (crc(buffer, (int) indexOffset, count * ENTRY_SIZE, scratch) != buffer.getInt(24)) {
+      throw new IOException("snapshot index corrupted");
+    }
+    return new MappedSnapshot<>(buffer, codec, flags, count, (int) indexOffset);
+  }
+
+  private static int crc(ByteBuffer buffer, int offset, int length, byte[] scratch) {
+    CRC32 crc = new CRC32();
+    ByteBuffer in = buffer.duplicate();
+    in.position(offset);
+    while (length > 0) {
+      int n = Math.min(length, scratch.length);
+      in.get(scratch, 0, n);
+      crc.update(scratch, 0, n);
+      length -= n;
+    }
+    return (int) crc.getValue();
+  }
+
+  /**
+   * lazily decoded, read only view of a snapshot file, safe to read from several threads.
+   * {@link #indexOfKey} works on stored keys without decoding anything, the key table is built
+   * from the index on its first call.
+   */
+  public static final class MappedSnapshot<V> implements ReadOnlyList<V> {
+    private final MappedByteBuffer mBuffer;
+    private final Codec<? extends V> mCodec;
+    private final int mFlags;
+    private final int mCount;
+    private final int mIndexOffset;
+    private final AtomicReferenceArray<Object> mDecoded;
+    // built on first key lookup, benign race between readers
+    private volatile LongIntMap mKeys;
+    private int mNullPosition = -1;
+
+    MappedSnapshot(MappedByteBuffer buffer, Codec<? extends V> codec, int flags, int count,
+                   int indexOffset) {
+      mBuffer = buffer;
+      mCodec = codec;
+      mFlags = flags;
+      mCount = count;
+      mIndexOffset = indexOffset;
+      mDecoded = new AtomicReferenceArray<>(count);
+    }
+
+    @Override
+    public int size() {
+      return mCount;
+    }
+
+    /**
+     * decode on first access, cached after that
+     * @throws IllegalStateException record corrupted or not decodable
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getItem(int position) {
+      if (position < 0 || position >= mCount) {
+        throw new IndexOutOfBoundsException("position: " + position + ", size: " + mCount);
+      }
+      Object value = mDecoded.get(position);
+      if (value == null) {
+        value = decode(position);
+        if (value == null) {
+          return null;
+        }
+        // another reader may have won, keep a single instance
+        if (!mDecoded.compareAndSet(position, null, value)) {
+          value = mDecoded.get(position);
+        }
+      }
+      return (V) value;
+    }
+
+    /**
+     * @param key {@link LinkedHashTreeSet#getIntKey(Object)} or long extractor key
+     * @return position or -1
+     */
+    public int indexOfKey(long key) {
+      return keys().get(key);
+    }
+
+    public boolean containsKey(long key) {
+      return keys().containsKey(key);
+    }
+
+    public int indexOfNull() {
+      keys();
+      return mNullPosition;
+    }
+
+    public boolean hasLongKeys() {
+      return (mFlags & FLAG_LONG_KEYS) != 0;
+    }
+
+    /**
+     * decode everything into target in one block add, e.g. on a background thread
+     */
+    public void materializeInto(LinkedHashTreeSet<? super V> target) {
+      Object[] values = new Object[mCount];
+      for (int i = 0; i < mCount; ++i) {
+        values[i] = getItem(i);
+      }
+      @SuppressWarnings("unchecked")
+      List<V> list = (List<V>) Arrays.asList(values);
+      target.addAll(list);
+    }
+
+    private LongIntMap keys() {
+      LongIntMap keys = mKeys;
+      if (keys == null) {
+        keys = new LongIntMap(mCount, -1);
+        int nullPosition = -1;
+        for (int i = 0; i < mCount; ++i) {
+          int entry = mIndexOffset + i * ENTRY_SIZE;
+          if (mBuffer.getInt(entry + 12) == NULL_LENGTH) {
+            nullPosition = i;
+          } else {
+            keys.put(mBuffer.getLong(entry), i);
+          }
+        }
+        mNullPosition = nullPosition;
+        // volatile write publishes mNullPosition too
+        mKeys = keys;
+      }
+      return keys;
+    }
+
+    private V decode(int position) {
+      int entry = mIndexOffset + position * ENTRY_SIZE;
+      int offset = mBuffer.getInt(entry + 8);
+      int length = mBuffer.getInt(entry + 12);
+      if (length == NULL_LENGTH) {
+        return null;
+      }
+      if (offset < HEADER_SIZE || length < 0 || (long) offset + length > mIndexOffset) {
+        throw new IllegalStateException("snapshot record " + position + " out of bounds");
+      }
+      if (crc(mBuffer, offset, length, sScratch.get())
+          != mBuffer.getInt(entry + 16)) {
+        throw new IllegalStateException("snapshot record " + position + " corrupted");
+      }
+      ByteBuffer in = mBuffer.duplicate();
+      in.limit(offset + length).position(offset);
+      try {
+        return mCodec.decode(in);
+      } catch (IOException e) {
+        throw new IllegalStateException("snapshot record " + position + " not decodable", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package me.littlekey.base.utils;
+
+import android.util.Log;
+
+import timber.log.Timber;
+
+/**
+ * structured log record with typed key / value pairs, obtained from {@link LogUtils#at} and
+ * friends. values are stored as they are, primitives unboxed, and only turned into text by
+ * {@link #toString} when a tree actually formats the record.
+ * below {@link LogUtils#isLoggable} every call goes to a shared no-op event, nothing is built.
+ * events are per thread and reused, do not keep one past {@link #log}. each thread keeps a short
+ * stack of them, an event obtained while another is still between obtain and log, e.g. from a
+ * put argument, a value's toString or a tree, takes the next one. an event obtained and never
+ * logged is reclaimed once one below it is logged, past {@link #MAX_DEPTH} live events the top
+ * one is taken as abandoned and reused.
+ * the tag given to {@link LogUtils#at} is set with {@link Timber#tag}, without one the caller
+ * class is taken from a stack trace, like {@link Timber.DebugTree} would, at the same cost.
+ * Created by littlekey on 26/10/18.
+ */
+public final class LogEvent {
+  private static final int INITIAL_CAPACITY = 8;
+  private static final byte TYPE_LONG = 0;
+  private static final byte TYPE_DOUBLE = 1;
+  private static final byte TYPE_BOOLEAN = 2;
+  private static final byte TYPE_OBJECT = 3;
+  // logcat limit before API 24
+  private static final int MAX_TAG_LENGTH = 23;
+  // events live at once on a thread, deeper nesting than this is a leak, not a real record
+  private static final int MAX_DEPTH = 4;
+
+  static final LogEvent DISABLED = new LogEvent(null, -1);
+
+  private static final ThreadLocal<Stack> sStacks = new ThreadLocal<Stack>() {
+    @Override
+    protected Stack initialValue() {
+      return new Stack();
+    }
+  };
+
+  private static final class Stack {
+    private final LogEvent[] mEvents = new LogEvent[MAX_DEPTH];
+    // events between obtain and log, those at or above it are free
+    private int mDepth;
+  }
+
+  private final boolean mEnabled;
+  private final Stack mStack;
+  private final int mIndex;
+  // the one format argument handed to timber, so no varargs array per call
+  private final Object[] mArgs = {this};
+  private int mPriority;
+  private String mTag;
+  private String mName;
+  private Throwable mError;
+  private int mCount;
+  private String[] mKeys = new String[INITIAL_CAPACITY];
+  private byte[] mTypes = new byte[INITIAL_CAPACITY];
+  private long[] mLongs = new long[INITIAL_CAPACITY];
+  private Object[] mObjects = new Object[INITIAL_CAPACITY];
+  private String mFormatted;
+
+  private LogEvent(Stack stack, int index) {
+    mEnabled = stack != null;
+    mStack = stack;
+    mIndex = index;
+  }
+
+  /**
+   * @param tag null for the caller class
+   */
+  static LogEvent obtain(int priority, String tag, String name) {
+    Stack stack = sStacks.get();
+    int index = Math.min(stack.mDepth, MAX_DEPTH - 1);
+    LogEvent event = stack.mEvents[index];
+    if (event == null) {
+      event = new LogEvent(stack, index);
+      stack.mEvents[index] = event;
+    } else {
+      // whatever an abandoned event left behind
+      event.recycle();
+    }
+    stack.mDepth = index + 1;
+    event.mPriority = priority;
+    event.mTag = tag;
+    event.mName = name;
+    return event;
+  }
+
+  public LogEvent put(String key, long value) {
+    if (mEnabled) {
+      mLongs[next(key, TYPE_LONG)] = value;
+    }
+    return this;
+  }
+
+  public LogEvent put(String key, int value) {
+    return put(key, (long) value);
+  }
+
+  public LogEvent put(String key, double value) {
+    if (mEnabled) {
+      mLongs[next(key, TYPE_DOUBLE)] = Double.doubleToRawLongBits(value);
+    }
+    return this;
+  }
+
+  public LogEvent put(String key, boolean value) {
+    if (mEnabled) {
+      mLongs[next(key, TYPE_BOOLEAN)] = value ? 1 : 0;
+    }
+    return this;
+  }
+
+  /**
+   * @param value kept by reference, {@link String#valueOf} only when formatted
+   */
+  public LogEvent put(String key, Object value) {
+    if (mEnabled) {
+      mObjects[next(key, TYPE_OBJECT)] = value;
+    }
+    return this;
+  }
+
+  /**
+   * attach t, its stack trace follows the message
+   */
+  public LogEvent error(Throwable t) {
+    if (mEnabled) {
+      mError = t;
+    }
+    return this;
+  }
+
+  /**
+   * hand the event to timber and release it
+   */
+  public void log() {
+    if (!mEnabled) {
+      return;
+    }
+    try {
+      Timber.tag(mTag != null ? mTag : callerTag());
+      Throwable t = mError;
+      switch (mPriority) {
+        case Log.VERBOSE:
+          Timber.v(t, "%s", mArgs);
+          break;
+        case Log.DEBUG:
+          Timber.d(t, "%s", mArgs);
+          break;
+        case Log.INFO:
+          Timber.i(t, "%s", mArgs);
+          break;
+        case Log.WARN:
+          Timber.w(t, "%s", mArgs);
+          break;
+        case Log.ERROR:
+          Timber.e(t, "%s", mArgs);
+          break;
+        default:
+          Timber.wtf(t, "%s", mArgs);
+          break;
+      }
+    } finally {
+      recycle();
+      // also frees any event above this one that was obtained and never logged
+      mStack.mDepth = Math.min(mStack.mDepth, mIndex);
+    }
+  }
+
+  /**
+   * "name key=value, key=value", built once per event however many trees format it
+   */
+  @Override
+  public String toString() {
+    if (mFormatted != null) {
+      return mFormatted;
+    }
+    StringBuilder builder = new StringBuilder(mName == null ? "" : mName);
+    for (int i = 0; i < mCount; ++i) {
+      builder.append(i == 0 ? " " : ", ").append(mKeys[i]).append('=');
+      switch (mTypes[i]) {
+        case TYPE_LONG:
+          builder.append(mLongs[i]);
+          break;
+        case TYPE_DOUBLE:
+          builder.append(Double.longBitsToDouble(mLongs[i]));
+          break;
+        case TYPE_BOOLEAN:
+          builder.append(mLongs[i] != 0);
+          break;
+        default:
+          builder.append(mObjects[i]);
+          break;
+      }
+    }
+    mFormatted = builder.toString();
+    return mFormatted;
+  }
+
+  private int next(String key, byte type) {
+    int index = mCount;
+    if (index == mKeys.length) {
+      int capacity = index * 2;
+      String[] keys = new String[capacity];
+      System.arraycopy(mKeys, 0, keys, 0, index);
+      mKeys = keys;
+      byte[] types = new byte[capacity];
+      System.arraycopy(mTypes, 0, types, 0, index);
+      mTypes = types;
+      long[] longs = new long[capacity];
+      System.arraycopy(mLongs, 0, longs, 0, index);
+      mLongs = longs;
+      Object[] objects = new Object[capacity];
+      System.arraycopy(mObjects, 0, objects, 0, index);
+      mObjects = objects;
+    }
+    mKeys[index] = key;
+    mTypes[index] = type;
+    mCount = index + 1;
+    return index;
+  }
+
+  // first frame outside this class, anonymous class suffixes dropped
+  private static String callerTag() {
+    for (StackTraceElement element : new Throwable().getStackTrace()) {
+      String className = element.getClassName();
+      if (className.equals(LogEvent.class.getName())) {
+        continue;
+      }
+      int end = className.length();
+      while (true) {
+        int digits = end;
+        while (digits > 0 && Character.isDigit(className.charAt(digits - 1))) {
+          --digits;
+        }
+        if (digits == end || digits == 0 || className.charAt(digits - 1) != '$') {
+          break;
+        }
+        end = digits - 1;
+      }
+      String tag = className.substring(className.lastIndexOf('.', end - 1) + 1, end);
+      return tag.length() > MAX_TAG_LENGTH ? tag.substring(0, MAX_TAG_LENGTH) : tag;
+    }
+    return null;
+  }
+
+  private void recycle() {
+    for (int i = 0; i < mCount; ++i) {
+      mKeys[i] = null;
+      mObjects[i] = null;
+    }
+    mCount = 0;
+    mTag = null;
+    mName = null;
+    mError = null;
+    mFormatted = null;
+  }
+}
@@ -0,0 +1,189 @@
+package me.littlekey.base.utils;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * rate limit for one log call site or a family of tags, keep it in a static final field.
+ * token bucket runs GCRA on one AtomicLong per bucket, sampling passes 1 in N, both are a
+ * CAS / increment on the calling thread, no lock and no allocation.
+ * denied calls are counted, the next passing event carries "suppressed=N" and
+ * {@link #reportSuppressed} logs what is left for every limiter, at most once a minute on its
+ * own through {@link LogUtils#at(int, String, LogLimiter)}, untagged records while a tag
+ * limiter is set and the drain thread of an {@link AsyncLogTree} with a limiter.
+ * Created by littlekey on 26/10/18.
+ */
+public final class LogLimiter {
+  static final long SUMMARY_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private static final List<LogLimiter> sLimiters = new CopyOnWriteArrayList<>();
+  private static final AtomicLong sLastSummary = new AtomicLong(System.nanoTime());
+
+  private final String mName;
+  // nanos per token, 0 when sampling
+  private final long mInterval;
+  private final long mBurstWindow;
+  private final int mSampleRate;
+  private final int mMask;
+  // theoretical arrival time per bucket, or the sampling counter
+  private final AtomicLongArray mState;
+  private final AtomicLongArray mSuppressed;
+  // highest priority seen, summaries are logged at it
+  private volatile int mPriority = Log.VERBOSE;
+
+  private LogLimiter(String name, long interval, int burst, int sampleRate, int buckets) {
+    if (buckets < 1 || Integer.bitCount(buckets) != 1) {
+      throw new IllegalArgumentException("buckets: " + buckets);
+    }
+    mName = name;
+    mInterval = interval;
+    mBurstWindow = interval * burst;
+    mSampleRate = sampleRate;
+    mMask = buckets - 1;
+    mState = new AtomicLongArray(buckets);
+    mSuppressed = new AtomicLongArray(buckets);
+    if (interval > 0) {
+      // a full bucket to start with
+      long start = System.nanoTime() - mBurstWindow;
+      for (int i = 0; i < buckets; ++i) {
+        mState.set(i, start);
+      }
+    }
+    sLimiters.add(this);
+  }
+
+  /**
+   * @param burst calls allowed back to back before the rate applies
+   */
+  public static LogLimiter tokenBucket(String name, double perSecond, int burst) {
+    return tokenBucket(name, perSecond, burst, 1);
+  }
+
+  /**
+   * one bucket per key, keys are hashed into buckets, a power of two, so colliding keys share
+   */
+  public static LogLimiter tokenBucket(String name, double perSecond, int burst, int buckets) {
+    if (perSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("perSecond " + perSecond + ", burst " + burst);
+    }
+    return new LogLimiter(name, Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond)),
+        burst, 0, buckets);
+  }
+
+  /**
+   * pass the first of every rate calls
+   */
+  public static LogLimiter sample(String name, int rate) {
+    return sample(name, rate, 1);
+  }
+
+  public static LogLimiter sample(String name, int rate, int buckets) {
+    if (rate < 1) {
+      throw new IllegalArgumentException("rate: " + rate);
+    }
+    return new LogLimiter(name, 0, 0, rate, buckets);
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  public boolean tryAcquire() {
+    return tryAcquire(0, Log.VERBOSE);
+  }
+
+  /**
+   * @param key e.g. a tag, null shares a bucket with hash 0
+   */
+  public boolean tryAcquire(String key) {
+    return tryAcquire(bucketOf(key), Log.VERBOSE);
+  }
+
+  /**
+   * @return calls denied for key since the last take, and reset them
+   */
+  public long takeSuppressed(String key) {
+    int bucket = bucketOf(key);
+    return mSuppressed.get(bucket) == 0 ? 0 : mSuppressed.getAndSet(bucket, 0);
+  }
+
+  int bucketOf(String key) {
+    if (key == null || mMask == 0) {
+      return 0;
+    }
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & mMask;
+  }
+
+  boolean tryAcquire(int bucket, int priority) {
+    if (priority > mPriority) {
+      mPriority = priority;
+    }
+    if (mInterval == 0) {
+      if (mState.getAndIncrement(bucket) % mSampleRate == 0) {
+        return true;
+      }
+      mSuppressed.incrementAndGet(bucket);
+      return false;
+    }
+    long now = System.nanoTime();
+    while (true) {
+      long arrival = mState.get(bucket);
+      long next = (arrival - now > 0 ? arrival : now) + mInterval;
+      if (next - now > mBurstWindow) {
+        mSuppressed.incrementAndGet(bucket);
+        return false;
+      }
+      if (mState.compareAndSet(bucket, arrival, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * tree side check keyed by an explicit tag, untagged records and ERROR and up always pass and
+   * are not counted, so one noisy untagged caller cannot starve the others
+   */
+  boolean allowsTag(String tag, int priority) {
+    return tag == null || priority >= Log.ERROR || tryAcquire(bucketOf(tag), priority);
+  }
+
+  long takeSuppressed(int bucket) {
+    return mSuppressed.get(bucket) == 0 ? 0 : mSuppressed.getAndSet(bucket, 0);
+  }
+
+  /**
+   * log "suppressed" with the pending count of every limiter that denied something, counts of a
+   * limiter whose summary would be gated off stay pending
+   */
+  public static void reportSuppressed() {
+    sLastSummary.set(System.nanoTime());
+    for (LogLimiter limiter : sLimiters) {
+      if (!LogUtils.isLoggable(limiter.mPriority)) {
+        continue;
+      }
+      long suppressed = 0;
+      for (int i = 0; i <= limiter.mMask; ++i) {
+        suppressed += limiter.takeSuppressed(i);
+      }
+      if (suppressed > 0) {
+        LogUtils.at(limiter.mPriority, "LogLimiter", "suppressed").put("limiter", limiter.mName)
+            .put("count", suppressed).log();
+      }
+    }
+  }
+
+  // one caller per interval wins the CAS and reports, cheap enough for every log call
+  static void maybeReportSuppressed() {
+    long last = sLastSummary.get();
+    long now = System.nanoTime();
+    if (now - last >= SUMMARY_INTERVAL_NANOS && sLastSummary.compareAndSet(last, now)) {
+      reportSuppressed();
+    }
+  }
+}
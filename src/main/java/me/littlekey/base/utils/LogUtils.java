@@ -3,24 +3,241 @@ package me.littlekey.base.utils;
 
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+
 import timber.log.Timber;
 
 /**
  * Created by nengxiangzhou on 15/5/19.
  */
 public class LogUtils {
+  private static final long CRASH_FLUSH_TIMEOUT_MILLIS = 500;
+  private static final String FILE_LOG_PREFIX = "log";
+  private static final int FILE_LOG_SAMPLE_RATE = 8;
+
+  // lowest priority any planted tree keeps, raised by the release setups below
+  private static volatile int sMinPriority = Log.VERBOSE;
+  private static volatile LogLimiter sTagLimiter;
+  private static final TagGate sTagGate = new TagGate();
+  // guarded by LogUtils.class
+  private static boolean sTagGatePlanted;
+
   private LogUtils() {}
 
   public static void init(boolean debug) {
     if (debug) {
-      Timber.plant(new Timber.DebugTree());
+      plant(new GatedDebugTree());
     } else {
-      Timber.plant(new CrashReportingTree());
+      plant(new CrashReportingTree());
+      sMinPriority = Log.ERROR;
+    }
+  }
+
+  /**
+   * cheap gate for logging that has to compute its values, {@link LogEvent}s check it themselves
+   */
+  public static boolean isLoggable(int priority) {
+    return priority >= sMinPriority;
+  }
+
+  /**
+   * for apps planting their own trees, events below priority are dropped before anything is built
+   */
+  public static void setMinPriority(int priority) {
+    sMinPriority = priority;
+  }
+
+  /**
+   * structured event, e.g. {@code LogUtils.e(TAG, "read failed").put("size", size).error(e).log()}
+   * @param tag null for the caller class, found through a stack trace
+   * @return a no-op event below {@link #isLoggable}
+   */
+  public static LogEvent at(int priority, String tag, String event) {
+    if (priority < sMinPriority) {
+      return LogEvent.DISABLED;
+    }
+    LogLimiter.maybeReportSuppressed();
+    return LogEvent.obtain(priority, tag, event);
+  }
+
+  public static LogEvent at(int priority, String event) {
+    return at(priority, null, event);
+  }
+
+  /**
+   * like {@link #at(int, String, String)} for hot paths, only what limiter lets through is built,
+   * keyed by event. a passing event carries the count suppressed before it.
+   * @param limiter a static final one per call site
+   */
+  public static LogEvent at(int priority, String tag, String event, LogLimiter limiter) {
+    if (priority < sMinPriority) {
+      return LogEvent.DISABLED;
     }
+    LogLimiter.maybeReportSuppressed();
+    int bucket = limiter.bucketOf(event);
+    if (!limiter.tryAcquire(bucket, priority)) {
+      return LogEvent.DISABLED;
+    }
+    LogEvent result = LogEvent.obtain(priority, tag, event);
+    long suppressed = limiter.takeSuppressed(bucket);
+    if (suppressed > 0) {
+      result.put("suppressed", suppressed);
+    }
+    return result;
+  }
+
+  public static LogEvent at(int priority, String event, LogLimiter limiter) {
+    return at(priority, null, event, limiter);
+  }
+
+  /**
+   * rate limit what the trees planted here keep, keyed by the {@link Timber#tag} tag, e.g.
+   * {@code LogLimiter.tokenBucket("tags", 20, 50, 64)}, null turns it off.
+   * one decision per record, shared by every tree planted here, so a record costs one token
+   * however many trees keep it. denied records are left out before timber formats them.
+   * only explicitly tagged records are limited, untagged ones and ERROR and up always pass;
+   * {@link LogEvent}s are always tagged
+   */
+  public static void setTagLimiter(LogLimiter limiter) {
+    sTagLimiter = limiter;
+  }
+
+  public static LogEvent v(String event) {
+    return at(Log.VERBOSE, event);
+  }
+
+  public static LogEvent d(String event) {
+    return at(Log.DEBUG, event);
+  }
+
+  public static LogEvent i(String event) {
+    return at(Log.INFO, event);
+  }
+
+  public static LogEvent w(String event) {
+    return at(Log.WARN, event);
+  }
+
+  public static LogEvent e(String event) {
+    return at(Log.ERROR, event);
+  }
+
+  public static LogEvent v(String tag, String event) {
+    return at(Log.VERBOSE, tag, event);
+  }
+
+  public static LogEvent d(String tag, String event) {
+    return at(Log.DEBUG, tag, event);
+  }
+
+  public static LogEvent i(String tag, String event) {
+    return at(Log.INFO, tag, event);
+  }
+
+  public static LogEvent w(String tag, String event) {
+    return at(Log.WARN, tag, event);
+  }
+
+  public static LogEvent e(String tag, String event) {
+    return at(Log.ERROR, tag, event);
+  }
+
+  public static LogEvent v(String event, LogLimiter limiter) {
+    return at(Log.VERBOSE, event, limiter);
+  }
+
+  public static LogEvent d(String event, LogLimiter limiter) {
+    return at(Log.DEBUG, event, limiter);
+  }
+
+  public static LogEvent i(String event, LogLimiter limiter) {
+    return at(Log.INFO, event, limiter);
+  }
+
+  public static LogEvent w(String event, LogLimiter limiter) {
+    return at(Log.WARN, event, limiter);
+  }
+
+  public static LogEvent e(String event, LogLimiter limiter) {
+    return at(Log.ERROR, event, limiter);
+  }
+
+  /**
+   * like {@link #init}, release builds also keep every record, VERBOSE and DEBUG included, in a
+   * memory mapped {@link FlightRecorder} at flightRecorderFile that survives a crash
+   * @return what the previous launch recorded, to attach to its crash report, null if nothing.
+   * its records are decoded on first read, read them off the main thread
+   */
+  public static FlightRecorder.Session init(boolean debug, File flightRecorderFile) {
+    if (debug) {
+      init(true);
+      return null;
+    }
+    try {
+      FlightRecorder recorder = FlightRecorder.open(flightRecorderFile,
+          FlightRecorder.DEFAULT_CAPACITY);
+      recorder.installCrashHandler();
+      plant(new CrashReportingTree());
+      plant(new FlightRecorderTree(recorder));
+      return recorder.getPreviousSession();
+    } catch (IOException e) {
+      plant(new CrashReportingTree());
+      sMinPriority = Log.ERROR;
+      Log.w("LogUtils", "flight recorder unavailable", e);
+      return null;
+    }
+  }
+
+  /**
+   * like {@link #init}, but debug logs reach logcat through a background thread, see
+   * {@link AsyncLogTree}, and are flushed before a crash
+   * @param defaultTag for records logged without {@link Timber#tag}
+   */
+  public static void initAsync(boolean debug, String defaultTag) {
+    if (debug) {
+      AsyncLogTree tree = new GatedAsyncLogTree(new AsyncLogTree.LogcatSink(defaultTag),
+          Log.VERBOSE, AsyncLogTree.OVERFLOW_DROP, 1);
+      tree.installCrashFlush(CRASH_FLUSH_TIMEOUT_MILLIS);
+      plant(tree);
+    } else {
+      plant(new CrashReportingTree());
+      sMinPriority = Log.ERROR;
+    }
+  }
+
+  /**
+   * also keep records of minPriority and up in rotating segment files under directory, written
+   * off the calling thread, see {@link RotatingFileSink}
+   * @return the sink, to {@link RotatingFileSink#rotate} and collect segments for upload
+   */
+  public static RotatingFileSink plantFileLog(File directory, int minPriority) {
+    RotatingFileSink sink = new RotatingFileSink(directory, FILE_LOG_PREFIX);
+    AsyncLogTree tree = new GatedAsyncLogTree(sink, minPriority, AsyncLogTree.OVERFLOW_SAMPLE,
+        FILE_LOG_SAMPLE_RATE);
+    tree.installCrashFlush(CRASH_FLUSH_TIMEOUT_MILLIS);
+    plant(tree);
+    sMinPriority = Math.min(sMinPriority, minPriority);
+    return sink;
+  }
+
+  // the tag gate goes first, every tree here reads the decision it took for the record
+  private static synchronized void plant(Timber.Tree tree) {
+    if (!sTagGatePlanted) {
+      Timber.plant(sTagGate);
+      sTagGatePlanted = true;
+    }
+    Timber.plant(tree);
   }
 
   /** A tree which logs important information for crash reporting. */
   private static class CrashReportingTree extends Timber.DebugTree {
+    @Override protected boolean isLoggable(String tag, int priority) {
+      // spares timber the formatting of records nobody keeps
+      return priority >= Log.ERROR;
+    }
+
+    // ERROR and up only, the tag limiter never applies
     @Override protected void log(int priority, String tag, String message, Throwable t) {
       if (priority == Log.VERBOSE || priority == Log.DEBUG) {
         return;
@@ -33,4 +250,76 @@ public class LogUtils {
       }
     }
   }
+
+  /**
+   * every record into the flight recorder, tags are the explicit ones from {@link Timber#tag},
+   * a stack trace tag per record would cost more than the record itself
+   */
+  private static class FlightRecorderTree extends Timber.Tree {
+    private final FlightRecorder mRecorder;
+
+    FlightRecorderTree(FlightRecorder recorder) {
+      mRecorder = recorder;
+    }
+
+    @Override protected boolean isLoggable(String tag, int priority) {
+      return sTagGate.allows();
+    }
+
+    @Override protected void log(int priority, String tag, String message, Throwable t) {
+      mRecorder.record(priority, tag, message);
+    }
+  }
+
+  private static class GatedDebugTree extends Timber.DebugTree {
+    @Override protected boolean isLoggable(String tag, int priority) {
+      return sTagGate.allows();
+    }
+  }
+
+  private static class GatedAsyncLogTree extends AsyncLogTree {
+    GatedAsyncLogTree(Sink sink, int minPriority, int overflow, int sampleRate) {
+      super(sink, minPriority, DEFAULT_CAPACITY, overflow, sampleRate);
+    }
+
+    @Override protected boolean isLoggable(String tag, int priority) {
+      return super.isLoggable(tag, priority) && sTagGate.allows();
+    }
+  }
+
+  /**
+   * first tree of the forest, takes the one tag limiter decision per record that every tree
+   * planted here reads, it never logs itself. it sees explicit tags only, untagged records pass.
+   * the suppressed summary is logged from inside an untagged record: with no explicit tag
+   * pending, the nested record cannot take one from the trees after this.
+   */
+  private static class TagGate extends Timber.Tree {
+    private final ThreadLocal<boolean[]> mDenied = new ThreadLocal<boolean[]>() {
+      @Override
+      protected boolean[] initialValue() {
+        return new boolean[1];
+      }
+    };
+
+    boolean allows() {
+      return !mDenied.get()[0];
+    }
+
+    @Override protected boolean isLoggable(String tag, int priority) {
+      LogLimiter limiter = sTagLimiter;
+      boolean denied = false;
+      if (limiter != null) {
+        if (tag == null) {
+          LogLimiter.maybeReportSuppressed();
+        } else {
+          denied = !limiter.allowsTag(tag, priority);
+        }
+      }
+      // after the summary, its own decision must not stick to this record
+      mDenied.get()[0] = denied;
+      return false;
+    }
+
+    @Override protected void log(int priority, String tag, String message, Throwable t) {}
+  }
 }
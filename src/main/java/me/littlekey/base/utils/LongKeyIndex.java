@@ -0,0 +1,74 @@
+package me.littlekey.base.utils;
+
+import java.util.Arrays;
+
+import me.littlekey.base.primitive.LongIntMap;
+
+/**
+ * {@link KeyIndex} over {@link LinkedHashTreeSet.LongKeyExtractor} keys, null items chain apart.
+ * Created by littlekey on 26/10/18.
+ */
+final class LongKeyIndex extends KeyIndex {
+  private final LinkedHashTreeSet.LongKeyExtractor mExtractor;
+  private final LongIntMap mTable;
+  private long[] mSlotKeys;
+  private int mNullHead = NO_SLOT;
+
+  LongKeyIndex(LinkedHashTreeSet.LongKeyExtractor extractor, int capacity, boolean verify) {
+    super(capacity, verify);
+    mExtractor = extractor;
+    mTable = new LongIntMap(capacity, NO_SLOT);
+    mSlotKeys = new long[capacity];
+  }
+
+  @Override
+  int head(Object value) {
+    return value == null ? mNullHead : mTable.get(mExtractor.getKey(value));
+  }
+
+  @Override
+  void put(Object value, int slot) {
+    if (value == null) {
+      mNullHead = link(mNullHead, slot);
+      return;
+    }
+    long key = mExtractor.getKey(value);
+    mSlotKeys[slot] = key;
+    mTable.put(key, link(mTable.get(key), slot));
+  }
+
+  @Override
+  void remove(int slot) {
+    if (inChain(mNullHead, slot)) {
+      mNullHead = unlink(mNullHead, slot);
+      return;
+    }
+    long key = mSlotKeys[slot];
+    int head = unlink(mTable.get(key), slot);
+    if (head == NO_SLOT) {
+      mTable.remove(key);
+    } else {
+      mTable.put(key, head);
+    }
+  }
+
+  @Override
+  long keyAt(int slot) {
+    return mSlotKeys[slot];
+  }
+
+  @Override
+  void clear() {
+    mTable.clear();
+    mNullHead = NO_SLOT;
+  }
+
+  @Override
+  void ensureCapacity(int capacity) {
+    super.ensureCapacity(capacity);
+    if (capacity > mSlotKeys.length) {
+      mSlotKeys = Arrays.copyOf(mSlotKeys, capacity);
+    }
+    mTable.ensureCapacity(capacity);
+  }
+}
@@ -0,0 +1,237 @@
+package me.littlekey.base.utils;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import me.littlekey.base.ReadOnlyList;
+
+/**
+ * {@link ReadOnlyList} over a memory mapped file of records, items stay off heap.
+ * <p>
+ * open maps the file and reads a 24 byte header, nothing else, so it is instant at any size.
+ * {@link #getItem} binds a reused flyweight cursor to the record through the {@link RecordView},
+ * fields are decoded from the buffer only when the cursor reads them, no allocation per call.
+ * <pre>
+ *   header, 24 bytes, big endian
+ *     int   magic 'MRLS'
+ *     int   version
+ *     int   count
+ *     int   record size, 0 for variable size records
+ *     long  offset table position, variable size only
+ *   records, back to back
+ *   variable size only: count + 1 int offsets, record i is [offset[i], offset[i + 1])
+ * </pre>
+ * Created by littlekey on 26/10/18.
+ */
+public class MappedRecordList<T> implements ReadOnlyList<T> {
+  public static final int VERSION = 1;
+
+  private static final int MAGIC = 0x4D524C53;
+  private static final int HEADER_SIZE = 24;
+  private static final int STAGING_SIZE = 64 * 1024;
+
+  /**
+   * decodes fields of a record straight from the mapped buffer
+   */
+  public interface RecordView<T> {
+    /**
+     * @return a new empty flyweight cursor
+     */
+    T create();
+
+    /**
+     * point cursor at a record, should only keep buffer, offset and length, decoding fields lazily
+     * @param buffer shared read only buffer, use absolute gets only
+     */
+    void bind(T cursor, ByteBuffer buffer, int offset, int length);
+  }
+
+  public interface RecordEncoder<T> {
+    void encode(T item, DataOutput out) throws IOException;
+  }
+
+  private final ByteBuffer mBuffer;
+  private final RecordView<T> mView;
+  private final int mCount;
+  private final int mRecordSize;
+  private final int mOffsetTable;
+  private final T mCursor;
+
+  private MappedRecordList(ByteBuffer buffer, RecordView<T> view, int count, int recordSize,
+                           int offsetTable) {
+    mBuffer = buffer;
+    mView = view;
+    mCount = count;
+    mRecordSize = recordSize;
+    mOffsetTable = offsetTable;
+    mCursor = view.create();
+  }
+
+  /**
+   * @throws IOException unreadable, unknown version or inconsistent header
+   */
+  public static <T> MappedRecordList<T> open(File file, RecordView<T> view) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    MappedByteBuffer buffer;
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("bad record file size " + size);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      raf.close();
+    }
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("not a record file: " + file);
+    }
+    int version = buffer.getInt(4);
+    if (version < 1 || version > VERSION) {
+      throw new IOException("unsupported record file version " + version);
+    }
+    int count = buffer.getInt(8);
+    int recordSize = buffer.getInt(12);
+    long offsetTable = buffer.getLong(16);
+    long end = recordSize > 0
+        ? HEADER_SIZE + (long) count * recordSize : offsetTable + (count + 1L) * 4;
+    if (count < 0 || recordSize < 0 || (recordSize == 0 && offsetTable < HEADER_SIZE)
+        || end > buffer.capacity()) {
+      throw new IOException("record file truncated: " + file);
+    }
+    return new MappedRecordList<>(buffer, view, count, recordSize, (int) offsetTable);
+  }
+
+  @Override
+  public int size() {
+    return mCount;
+  }
+
+  /**
+   * no allocation, not thread safe
+   * @return the shared cursor bound to position, only valid until the next call
+   */
+  @Override
+  public T getItem(int position) {
+    return getItem(position, mCursor);
+  }
+
+  /**
+   * bind a caller owned cursor, e.g. one per view holder, safe from any thread
+   * @return cursor
+   */
+  public T getItem(int position, T cursor) {
+    if (position < 0 || position >= mCount) {
+      throw new IndexOutOfBoundsException("position: " + position + ", size: " + mCount);
+    }
+    if (mRecordSize > 0) {
+      mView.bind(cursor, mBuffer, HEADER_SIZE + position * mRecordSize, mRecordSize);
+    } else {
+      int entry = mOffsetTable + position * 4;
+      int offset = mBuffer.getInt(entry);
+      mView.bind(cursor, mBuffer, offset, mBuffer.getInt(entry + 4) - offset);
+    }
+    return cursor;
+  }
+
+  public RecordView<T> getView() {
+    return mView;
+  }
+
+  /**
+   * write items atomically, through a temp file and rename, the temp file is deleted when
+   * anything fails
+   * @param recordSize fixed record size, shorter records are zero padded, 0 for variable size
+   */
+  public static <T> void write(File file, Iterable<? extends T> items, RecordEncoder<? super T> encoder,
+                               int recordSize) throws IOException {
+    if (recordSize < 0) {
+      throw new IllegalArgumentException("recordSize: " + recordSize);
+    }
+    File temp = new File(file.getPath() + ".tmp");
+    RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+    boolean written = false;
+    try {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      channel.position(HEADER_SIZE);
+      ByteBuffer staging = ByteBuffer.allocate(Math.max(STAGING_SIZE, recordSize));
+      FileUtils.Bytes bytes = new FileUtils.Bytes();
+      DataOutputStream out = new DataOutputStream(bytes);
+      int[] offsets = recordSize == 0 ? new int[64] : null;
+      int count = 0;
+      long offset = HEADER_SIZE;
+      for (T item : items) {
+        bytes.reset();
+        encoder.encode(item, out);
+        out.flush();
+        int length = bytes.size();
+        if (recordSize > 0) {
+          if (length > recordSize) {
+            throw new IOException("record " + count + " is " + length + " bytes > " + recordSize);
+          }
+          length = recordSize;
+        }
+        if (offset + length > Integer.MAX_VALUE) {
+          throw new IOException("record file exceeds 2GB");
+        }
+        if (offsets != null) {
+          if (count + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length << 1);
+          }
+          offsets[count] = (int) offset;
+        }
+        if (length > staging.remaining()) {
+          FileUtils.flushStaging(channel, staging);
+        }
+        if (length > staging.capacity()) {
+          FileUtils.writeFully(channel, ByteBuffer.wrap(bytes.buffer(), 0, length));
+        } else {
+          staging.put(bytes.buffer(), 0, bytes.size());
+          // zero padding up to the fixed size
+          for (int i = bytes.size(); i < length; ++i) {
+            staging.put((byte) 0);
+          }
+        }
+        offset += length;
+        ++count;
+      }
+      FileUtils.flushStaging(channel, staging);
+
+      long offsetTable = 0;
+      if (offsets != null) {
+        offsetTable = offset;
+        offsets[count] = (int) offset;
+        ByteBuffer table = ByteBuffer.allocate((count + 1) * 4);
+        table.asIntBuffer().put(offsets, 0, count + 1);
+        FileUtils.writeFully(channel, table);
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(recordSize).putLong(offsetTable);
+      header.flip();
+      channel.position(0);
+      FileUtils.writeFully(channel, header);
+      channel.force(true);
+      written = true;
+    } finally {
+      try {
+        raf.close();
+      } finally {
+        if (!written) {
+          FileUtils.delete(temp);
+        }
+      }
+    }
+    if (!temp.renameTo(file)) {
+      FileUtils.delete(temp);
+      throw new IOException("rename " + temp + " to " + file + " failed");
+    }
+  }
+}
@@ -0,0 +1,348 @@
+package me.littlekey.base.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import me.littlekey.base.ReadOnlyList;
+
+/**
+ * {@link ReadOnlyList} over a paged source, items are loaded on demand and never all held.
+ * <p>
+ * {@link #getItem} never blocks: it returns the item when its page is in memory, otherwise the
+ * placeholder, and asks the loader for every missing page within the prefetch distance around
+ * the position. loads run on the load executor, their results are applied and reported together
+ * on the callback executor (e.g. a main thread Handler executor), so an adapter reading on that
+ * thread never sees items or a size before the matching notify.
+ * <p>
+ * a failed page is not requested again until {@link #retryFailedPages} or {@link #invalidate}.
+ * <p>
+ * at most maxPages pages stay in memory, pages farthest from the last accessed position are
+ * dropped first and loaded again when they come back into view.
+ * <p>
+ * {@link #size()} starts with the estimate and becomes exact once a short page (fewer than
+ * pageSize items) marks the end, the lowest one wins whatever order loads finish in; a full last
+ * page grows the estimate by one page.
+ * Created by littlekey on 26/10/18.
+ */
+public class PagedReadOnlyList<T> implements ReadOnlyList<T> {
+
+  public interface PageLoader<T> {
+    /**
+     * runs on the load executor
+     * @return items of page, fewer than pageSize only for the last page
+     */
+    List<T> loadPage(int page, int pageSize) throws Exception;
+  }
+
+  public interface Listener {
+    void onItemsLoaded(int position, int count);
+
+    void onSizeChanged(int size);
+
+    void onPageFailed(int page, Exception e);
+  }
+
+  private static final byte STATE_IDLE = 0;
+  private static final byte STATE_IN_FLIGHT = 1;
+  private static final byte STATE_FAILED = 2;
+
+  private final Object mLock = new Object();
+  private final PageLoader<T> mLoader;
+  private final Executor mLoadExecutor;
+  private final Executor mCallbackExecutor;
+  private final int mPageSize;
+  private final int mPrefetchDistance;
+  private final int mMaxPages;
+  private final T mPlaceholder;
+  private volatile Listener mListener;
+
+  // guarded by mLock
+  private Object[][] mPages = new Object[0][];
+  private byte[] mStates = new byte[0];
+  private int mLoadedPages;
+  private int mSize;
+  private boolean mSizeKnown;
+  private int mLastPage;
+  // bumped by invalidate, loads of an older generation are dropped
+  private int mGeneration;
+
+  /**
+   * @param estimatedSize initial {@link #size()}, 0 when unknown, then {@link #prefetch}(0)
+   *                      once the listener is set, the first page corrects it
+   * @param prefetchDistance items around the accessed position to load ahead
+   * @param maxPages memory budget, >= pages covered by 2 * prefetchDistance + 1
+   * @param callbackExecutor applies loaded pages and runs listener callbacks, the thread the
+   *                         adapter reads on; null to do both on the load thread
+   */
+  public PagedReadOnlyList(PageLoader<T> loader, int pageSize, int estimatedSize,
+                           int prefetchDistance, int maxPages, T placeholder,
+                           Executor loadExecutor, Executor callbackExecutor) {
+    if (pageSize <= 0 || estimatedSize < 0 || prefetchDistance < 0) {
+      throw new IllegalArgumentException("pageSize: " + pageSize + ", estimatedSize: "
+          + estimatedSize + ", prefetchDistance: " + prefetchDistance);
+    }
+    int windowPages = (2 * prefetchDistance + pageSize - 1) / pageSize + 1;
+    if (maxPages < windowPages) {
+      throw new IllegalArgumentException("maxPages: " + maxPages + " < window " + windowPages);
+    }
+    mLoader = loader;
+    mPageSize = pageSize;
+    mSize = estimatedSize;
+    mPrefetchDistance = prefetchDistance;
+    mMaxPages = maxPages;
+    mPlaceholder = placeholder;
+    mLoadExecutor = loadExecutor;
+    mCallbackExecutor = callbackExecutor;
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  @Override
+  public int size() {
+    synchronized (mLock) {
+      return mSize;
+    }
+  }
+
+  public boolean isSizeKnown() {
+    synchronized (mLock) {
+      return mSizeKnown;
+    }
+  }
+
+  public int getPageSize() {
+    return mPageSize;
+  }
+
+  /**
+   * never blocks on a load
+   * @return item, or the placeholder while its page is not in memory
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public T getItem(int position) {
+    synchronized (mLock) {
+      if (position < 0 || position >= mSize) {
+        throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+      }
+      int page = position / mPageSize;
+      mLastPage = page;
+      prefetchLocked(position);
+      Object[] items = page < mPages.length ? mPages[page] : null;
+      int offset = position - page * mPageSize;
+      if (items == null || offset >= items.length) {
+        return mPlaceholder;
+      }
+      return (T) items[offset];
+    }
+  }
+
+  public boolean isLoaded(int position) {
+    synchronized (mLock) {
+      int page = position / mPageSize;
+      return page < mPages.length && mPages[page] != null;
+    }
+  }
+
+  /**
+   * load around position without reading, e.g. before a scroll to position
+   */
+  public void prefetch(int position) {
+    synchronized (mLock) {
+      mLastPage = position / mPageSize;
+      prefetchLocked(position);
+    }
+  }
+
+  /**
+   * drop every page, loads still in flight are discarded, pages are loaded again on access.
+   * the current size becomes an estimate again, so a data set that grew past its old end is
+   * picked up by the next load there
+   */
+  public void invalidate() {
+    synchronized (mLock) {
+      ++mGeneration;
+      mPages = new Object[0][];
+      mStates = new byte[0];
+      mLoadedPages = 0;
+      mSizeKnown = false;
+    }
+  }
+
+  /**
+   * allow failed pages to load again, those around the last accessed page are requested now
+   */
+  public void retryFailedPages() {
+    synchronized (mLock) {
+      for (int i = 0; i < mStates.length; ++i) {
+        if (mStates[i] == STATE_FAILED) {
+          mStates[i] = STATE_IDLE;
+        }
+      }
+      if (mSize > 0) {
+        prefetchLocked(Math.min(mLastPage * mPageSize, mSize - 1));
+      }
+    }
+  }
+
+  // guarded by mLock
+  private void prefetchLocked(int position) {
+    int first = Math.max(0, position - mPrefetchDistance) / mPageSize;
+    int last = Math.min(mSize - 1, position + mPrefetchDistance) / mPageSize;
+    // nearest first, the visible page goes out before the ones around it
+    int page = position / mPageSize;
+    requestPage(page);
+    for (int distance = 1; page - distance >= first || page + distance <= last; ++distance) {
+      if (page + distance <= last) {
+        requestPage(page + distance);
+      }
+      if (page - distance >= first) {
+        requestPage(page - distance);
+      }
+    }
+  }
+
+  // guarded by mLock
+  private void requestPage(final int page) {
+    if (mSizeKnown && page * mPageSize >= mSize) {
+      return;
+    }
+    ensurePages(page + 1);
+    if (mPages[page] != null || mStates[page] != STATE_IDLE) {
+      return;
+    }
+    mStates[page] = STATE_IN_FLIGHT;
+    final int generation = mGeneration;
+    mLoadExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        load(page, generation);
+      }
+    });
+  }
+
+  // load thread, the result is handed to the callback executor as it is
+  private void load(final int page, final int generation) {
+    List<T> items = null;
+    Exception error = null;
+    try {
+      items = mLoader.loadPage(page, mPageSize);
+    } catch (Exception e) {
+      error = e;
+    }
+    final List<T> result = items;
+    final Exception failure = error;
+    dispatch(new Runnable() {
+      @Override
+      public void run() {
+        if (failure == null) {
+          apply(page, generation, result);
+        } else {
+          fail(page, generation, failure);
+        }
+      }
+    });
+  }
+
+  // callback thread, data and notify change in the same turn
+  private void apply(int page, int generation, List<T> items) {
+    int oldSize;
+    int newSize;
+    synchronized (mLock) {
+      if (generation != mGeneration) {
+        return;
+      }
+      mStates[page] = STATE_IDLE;
+      int start = page * mPageSize;
+      // loads finish in any order, one past a short page already seen has nothing to add
+      if (mSizeKnown && start >= mSize) {
+        return;
+      }
+      mPages[page] = items.toArray();
+      ++mLoadedPages;
+      oldSize = mSize;
+      int end = start + items.size();
+      if (items.size() < mPageSize) {
+        // the lowest short page marks the end, a later one may only lower it
+        mSize = mSizeKnown ? Math.min(mSize, end) : end;
+        mSizeKnown = true;
+        dropPagesFrom((mSize + mPageSize - 1) / mPageSize);
+      } else if (!mSizeKnown && end >= mSize) {
+        mSize = end + mPageSize;
+      }
+      newSize = mSize;
+      evictLocked();
+    }
+    Listener listener = mListener;
+    if (listener == null) {
+      return;
+    }
+    if (newSize != oldSize) {
+      listener.onSizeChanged(newSize);
+    }
+    if (!items.isEmpty()) {
+      listener.onItemsLoaded(page * mPageSize, items.size());
+    }
+  }
+
+  // callback thread
+  private void fail(int page, int generation, Exception e) {
+    synchronized (mLock) {
+      if (generation != mGeneration) {
+        return;
+      }
+      // not requested again until retryFailedPages or invalidate
+      mStates[page] = STATE_FAILED;
+    }
+    Listener listener = mListener;
+    if (listener != null) {
+      listener.onPageFailed(page, e);
+    }
+  }
+
+  // guarded by mLock, pages past the end, e.g. loaded before a lower short page finished
+  private void dropPagesFrom(int first) {
+    for (int i = first; i < mPages.length; ++i) {
+      if (mPages[i] != null) {
+        mPages[i] = null;
+        --mLoadedPages;
+      }
+    }
+  }
+
+  // guarded by mLock, farthest from the last accessed page first
+  private void evictLocked() {
+    while (mLoadedPages > mMaxPages) {
+      int victim = -1;
+      int farthest = -1;
+      for (int i = 0; i < mPages.length; ++i) {
+        if (mPages[i] != null && Math.abs(i - mLastPage) > farthest) {
+          farthest = Math.abs(i - mLastPage);
+          victim = i;
+        }
+      }
+      mPages[victim] = null;
+      --mLoadedPages;
+    }
+  }
+
+  // guarded by mLock
+  private void ensurePages(int count) {
+    if (count > mPages.length) {
+      int capacity = Math.max(count, mPages.length + (mPages.length >> 1));
+      mPages = Arrays.copyOf(mPages, capacity);
+      mStates = Arrays.copyOf(mStates, capacity);
+    }
+  }
+
+  private void dispatch(Runnable runnable) {
+    if (mCallbackExecutor == null) {
+      runnable.run();
+    } else {
+      mCallbackExecutor.execute(runnable);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package me.littlekey.base.utils;
+
+import java.util.Arrays;
+
+/**
+ * plain int[] order, O(1) {@link #slotAt}, O(n) {@link #positionOf}.
+ * items sit in [mHead, mHead + mSize) with free room on both sides, insert / remove shift the
+ * shorter side, so add / remove at either end is amortized O(1) and the middle is O(n / 2).
+ * Created by littlekey on 26/10/18.
+ */
+final class PositionArray extends PositionIndex {
+  private int[] mOrder;
+  private int mHead;
+  private int mSize;
+
+  PositionArray(int capacity) {
+    mOrder = new int[capacity];
+  }
+
+  @Override
+  int size() {
+    return mSize;
+  }
+
+  @Override
+  int slotAt(int position) {
+    return mOrder[mHead + position];
+  }
+
+  @Override
+  int positionOf(int slot) {
+    int[] order = mOrder;
+    for (int i = mHead, end = mHead + mSize; i < end; ++i) {
+      if (order[i] == slot) {
+        return i - mHead;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  int nextSlot(int position, int slot) {
+    return position + 1 < mSize ? mOrder[mHead + position + 1] : NO_SLOT;
+  }
+
+  @Override
+  int prevSlot(int position, int slot) {
+    return position > 0 ? mOrder[mHead + position - 1] : NO_SLOT;
+  }
+
+  @Override
+  void insert(int position, int slot) {
+    openGap(position, 1);
+    mOrder[mHead + position] = slot;
+  }
+
+  @Override
+  void insertAll(int position, int[] slots, int count) {
+    openGap(position, count);
+    System.arraycopy(slots, 0, mOrder, mHead + position, count);
+  }
+
+  @Override
+  void rebuild(int[] slots, int count) {
+    if (count > mOrder.length) {
+      mOrder = new int[count];
+    }
+    System.arraycopy(slots, 0, mOrder, 0, count);
+    mHead = 0;
+    mSize = count;
+  }
+
+  @Override
+  int removeAt(int position) {
+    int slot = mOrder[mHead + position];
+    if (position * 2 < mSize) {
+      System.arraycopy(mOrder, mHead, mOrder, mHead + 1, position);
+      ++mHead;
+    } else {
+      System.arraycopy(mOrder, mHead + position + 1, mOrder, mHead + position, mSize - position - 1);
+    }
+    if (--mSize == 0) {
+      mHead = 0;
+    }
+    return slot;
+  }
+
+  @Override
+  void clear() {
+    mHead = 0;
+    mSize = 0;
+  }
+
+  @Override
+  void ensureCapacity(int capacity) {
+    if (mHead + capacity > mOrder.length) {
+      int[] order = new int[Math.max(capacity, mOrder.length)];
+      System.arraycopy(mOrder, mHead, order, 0, mSize);
+      mOrder = order;
+      mHead = 0;
+    }
+  }
+
+  // make room for count slots at position, shifting the shorter side
+  private void openGap(int position, int count) {
+    boolean front = position * 2 < mSize;
+    if (front && mHead >= count) {
+      System.arraycopy(mOrder, mHead, mOrder, mHead - count, position);
+      mHead -= count;
+    } else if (!front && mHead + mSize + count <= mOrder.length) {
+      System.arraycopy(mOrder, mHead + position, mOrder, mHead + position + count, mSize - position);
+    } else {
+      relayout(position, count, front);
+    }
+    mSize += count;
+  }
+
+  // copy into an array with at least a third free, so the next relayout is O(n) steps away
+  private void relayout(int position, int count, boolean front) {
+    int size = mSize + count;
+    int capacity = Math.max(mOrder.length, Math.max(8, size + (size >> 1)));
+    int head = front ? (capacity - size) / 2 : 0;
+    int[] order = new int[capacity];
+    System.arraycopy(mOrder, mHead, order, head, position);
+    System.arraycopy(mOrder, mHead + position, order, head + position + count, mSize - position);
+    mOrder = order;
+    mHead = head;
+  }
+}
@@ -0,0 +1,58 @@
+package me.littlekey.base.utils;
+
+/**
+ * position -> slot order of {@link LinkedHashTreeSet}, slots are dense non negative ints
+ * handed out by the owner.
+ * Created by littlekey on 26/10/18.
+ */
+abstract class PositionIndex {
+  static final int NO_SLOT = -1;
+
+  abstract int size();
+
+  abstract int slotAt(int position);
+
+  /**
+   * @param slot a slot currently in this index
+   * @return position of slot
+   */
+  abstract int positionOf(int slot);
+
+  /**
+   * cheap in order step for iteration
+   * @param position position of slot
+   * @param slot slot at position
+   * @return slot at position + 1, or {@link #NO_SLOT}
+   */
+  abstract int nextSlot(int position, int slot);
+
+  /**
+   * reverse of {@link #nextSlot}
+   * @return slot at position - 1, or {@link #NO_SLOT}
+   */
+  abstract int prevSlot(int position, int slot);
+
+  abstract void insert(int position, int slot);
+
+  /**
+   * splice a block of slots at position in one step
+   */
+  abstract void insertAll(int position, int[] slots, int count);
+
+  /**
+   * replace the whole order, used after bulk removal compacted it
+   */
+  abstract void rebuild(int[] slots, int count);
+
+  /**
+   * @return removed slot
+   */
+  abstract int removeAt(int position);
+
+  abstract void clear();
+
+  /**
+   * @param capacity max slot + 1 the owner may hand out
+   */
+  abstract void ensureCapacity(int capacity);
+}
@@ -0,0 +1,306 @@
+package me.littlekey.base.utils;
+
+import java.util.Arrays;
+
+/**
+ * order statistic tree: implicit treap keyed by position, node id is the slot itself,
+ * children / parent / subtree size live in int[] so there is no node object.
+ * expected O(log n) {@link #slotAt}, insert, remove and {@link #positionOf} (walk up by parent).
+ * Created by littlekey on 26/10/18.
+ */
+final class PositionTree extends PositionIndex {
+  private static final int NIL = NO_SLOT;
+
+  private int[] mLeft;
+  private int[] mRight;
+  private int[] mParent;
+  private int[] mCount;
+  private int[] mPriority;
+  private int mRoot = NIL;
+  private int mSeed = 0x2545F491;
+  // split results, avoid allocating a pair per split
+  private int mSplitLeft;
+  private int mSplitRight;
+
+  /**
+   * search predicate for trees kept sorted by their owner, see {@link #countBefore}
+   */
+  interface Probe {
+    boolean before(int slot);
+  }
+
+  PositionTree(int capacity) {
+    mLeft = new int[capacity];
+    mRight = new int[capacity];
+    mParent = new int[capacity];
+    mCount = new int[capacity];
+    mPriority = new int[capacity];
+  }
+
+  @Override
+  int size() {
+    return count(mRoot);
+  }
+
+  @Override
+  int slotAt(int position) {
+    int node = mRoot;
+    while (true) {
+      int leftCount = count(mLeft[node]);
+      if (position < leftCount) {
+        node = mLeft[node];
+      } else if (position == leftCount) {
+        return node;
+      } else {
+        position -= leftCount + 1;
+        node = mRight[node];
+      }
+    }
+  }
+
+  @Override
+  int positionOf(int slot) {
+    int position = count(mLeft[slot]);
+    for (int node = slot, parent = mParent[node]; parent != NIL; node = parent, parent = mParent[node]) {
+      if (mRight[parent] == node) {
+        position += count(mLeft[parent]) + 1;
+      }
+    }
+    return position;
+  }
+
+  @Override
+  int nextSlot(int position, int slot) {
+    int node = mRight[slot];
+    if (node != NIL) {
+      while (mLeft[node] != NIL) {
+        node = mLeft[node];
+      }
+      return node;
+    }
+    node = slot;
+    int parent = mParent[node];
+    while (parent != NIL && mRight[parent] == node) {
+      node = parent;
+      parent = mParent[node];
+    }
+    return parent;
+  }
+
+  @Override
+  int prevSlot(int position, int slot) {
+    int node = mLeft[slot];
+    if (node != NIL) {
+      while (mRight[node] != NIL) {
+        node = mRight[node];
+      }
+      return node;
+    }
+    node = slot;
+    int parent = mParent[node];
+    while (parent != NIL && mLeft[parent] == node) {
+      node = parent;
+      parent = mParent[node];
+    }
+    return parent;
+  }
+
+  @Override
+  void insert(int position, int slot) {
+    mLeft[slot] = NIL;
+    mRight[slot] = NIL;
+    mParent[slot] = NIL;
+    mCount[slot] = 1;
+    mPriority[slot] = nextPriority();
+    split(mRoot, position);
+    int left = detach(mSplitLeft);
+    int right = detach(mSplitRight);
+    mRoot = detach(merge(merge(left, slot), right));
+  }
+
+  @Override
+  void insertAll(int position, int[] slots, int count) {
+    int block = build(slots, count);
+    split(mRoot, position);
+    int left = detach(mSplitLeft);
+    int right = detach(mSplitRight);
+    mRoot = detach(merge(merge(left, block), right));
+  }
+
+  @Override
+  void rebuild(int[] slots, int count) {
+    mRoot = build(slots, count);
+  }
+
+  @Override
+  int removeAt(int position) {
+    int slot = slotAt(position);
+    int parent = mParent[slot];
+    int child = merge(detach(mLeft[slot]), detach(mRight[slot]));
+    if (child != NIL) {
+      mParent[child] = parent;
+    }
+    if (parent == NIL) {
+      mRoot = child;
+    } else {
+      if (mLeft[parent] == slot) {
+        mLeft[parent] = child;
+      } else {
+        mRight[parent] = child;
+      }
+      for (int node = parent; node != NIL; node = mParent[node]) {
+        --mCount[node];
+      }
+    }
+    return slot;
+  }
+
+  /**
+   * O(log n) binary search for trees whose order is sorted by the owner
+   * @param probe true for a prefix of the order, false for the rest
+   * @return length of that prefix, i.e. insertion position / lower bound
+   */
+  int countBefore(Probe probe) {
+    int position = 0;
+    int node = mRoot;
+    while (node != NIL) {
+      if (probe.before(node)) {
+        position += count(mLeft[node]) + 1;
+        node = mRight[node];
+      } else {
+        node = mLeft[node];
+      }
+    }
+    return position;
+  }
+
+  @Override
+  void clear() {
+    mRoot = NIL;
+  }
+
+  @Override
+  void ensureCapacity(int capacity) {
+    if (capacity > mLeft.length) {
+      mLeft = Arrays.copyOf(mLeft, capacity);
+      mRight = Arrays.copyOf(mRight, capacity);
+      mParent = Arrays.copyOf(mParent, capacity);
+      mCount = Arrays.copyOf(mCount, capacity);
+      mPriority = Arrays.copyOf(mPriority, capacity);
+    }
+  }
+
+  // O(n) cartesian tree over slots in order, random priorities keep it a treap
+  private int build(int[] slots, int count) {
+    if (count == 0) {
+      return NIL;
+    }
+    // right spine of the tree built so far
+    int[] spine = new int[count];
+    int top = 0;
+    for (int i = 0; i < count; ++i) {
+      int node = slots[i];
+      mLeft[node] = NIL;
+      mRight[node] = NIL;
+      mPriority[node] = nextPriority();
+      int last = NIL;
+      while (top > 0 && mPriority[spine[top - 1]] < mPriority[node]) {
+        last = spine[--top];
+      }
+      mLeft[node] = last;
+      if (last != NIL) {
+        mParent[last] = node;
+      }
+      if (top > 0) {
+        mRight[spine[top - 1]] = node;
+        mParent[node] = spine[top - 1];
+      }
+      spine[top++] = node;
+    }
+    int root = spine[0];
+    mParent[root] = NIL;
+    updateCounts(root);
+    return root;
+  }
+
+  private int updateCounts(int node) {
+    if (node == NIL) {
+      return 0;
+    }
+    int count = updateCounts(mLeft[node]) + updateCounts(mRight[node]) + 1;
+    mCount[node] = count;
+    return count;
+  }
+
+  // first k nodes of tree to mSplitLeft, the rest to mSplitRight
+  private void split(int node, int k) {
+    if (node == NIL) {
+      mSplitLeft = NIL;
+      mSplitRight = NIL;
+      return;
+    }
+    int leftCount = count(mLeft[node]);
+    if (k <= leftCount) {
+      split(mLeft[node], k);
+      setLeft(node, mSplitRight);
+      mSplitRight = node;
+    } else {
+      split(mRight[node], k - leftCount - 1);
+      setRight(node, mSplitLeft);
+      mSplitLeft = node;
+    }
+  }
+
+  // every node of a precedes every node of b
+  private int merge(int a, int b) {
+    if (a == NIL) {
+      return b;
+    }
+    if (b == NIL) {
+      return a;
+    }
+    if (mPriority[a] > mPriority[b]) {
+      setRight(a, merge(mRight[a], b));
+      return a;
+    }
+    setLeft(b, merge(a, mLeft[b]));
+    return b;
+  }
+
+  private void setLeft(int node, int child) {
+    mLeft[node] = child;
+    if (child != NIL) {
+      mParent[child] = node;
+    }
+    mCount[node] = count(child) + count(mRight[node]) + 1;
+  }
+
+  private void setRight(int node, int child) {
+    mRight[node] = child;
+    if (child != NIL) {
+      mParent[child] = node;
+    }
+    mCount[node] = count(mLeft[node]) + count(child) + 1;
+  }
+
+  private int detach(int node) {
+    if (node != NIL) {
+      mParent[node] = NIL;
+    }
+    return node;
+  }
+
+  private int count(int node) {
+    return node == NIL ? 0 : mCount[node];
+  }
+
+  private int nextPriority() {
+    // xorshift, deterministic per tree is fine for a treap
+    int x = mSeed;
+    x ^= x << 13;
+    x ^= x >>> 17;
+    x ^= x << 5;
+    mSeed = x;
+    return x;
+  }
+}
@@ -0,0 +1,454 @@
+package me.littlekey.base.utils;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * {@link AsyncLogTree.Sink} appending binary records to rotating segment files through a
+ * {@link FileChannel}. records are encoded into one 64K batch buffer and written once per batch,
+ * fsync runs at most every {@link #SYNC_BYTES} / {@link #SYNC_INTERVAL_MILLIS} unless an ERROR
+ * record is pending. segments rotate by size and age, the oldest are deleted past the total budget.
+ * <pre>
+ *   segment prefix-0000000001.log, big endian
+ *     int   magic 'LKLG'
+ *     int   version
+ *     long  created millis
+ *   records, back to back
+ *     int   payload length
+ *     int   payload crc32
+ *     long  time millis
+ *     long  thread id
+ *     byte  priority
+ *     short tag length, -1 for no tag
+ *           tag UTF-8
+ *           message UTF-8, the rest of the payload
+ * </pre>
+ * a torn record at the end of a segment, e.g. after a kill, ends {@link Reader} there.
+ * Created by littlekey on 26/10/18.
+ */
+public class RotatingFileSink implements AsyncLogTree.Sink {
+  public static final int VERSION = 1;
+  public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+  public static final long DEFAULT_SEGMENT_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+  public static final long DEFAULT_TOTAL_BYTES = 8 * 1024 * 1024;
+
+  static final long SYNC_BYTES = 256 * 1024;
+  static final long SYNC_INTERVAL_MILLIS = 5000;
+
+  private static final int MAGIC = 0x4C4B4C47;
+  private static final int HEADER_SIZE = 16;
+  // payload length and crc
+  private static final int RECORD_HEADER_SIZE = 8;
+  // time, thread id, priority, tag length
+  private static final int FIXED_PAYLOAD_SIZE = 19;
+  private static final int MAX_TAG_CHARS = 128;
+  private static final int MAX_MESSAGE_CHARS = 16 * 1024;
+  private static final int BATCH_SIZE = 64 * 1024;
+  private static final String SUFFIX = ".log";
+  private static final String TAG = "RotatingFileSink";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File mDirectory;
+  private final String mPrefix;
+  private final long mMaxSegmentBytes;
+  private final long mMaxSegmentAgeMillis;
+  private final long mMaxTotalBytes;
+
+  private final byte[] mBatch = new byte[BATCH_SIZE];
+  private final ByteBuffer mBatchBuffer = ByteBuffer.wrap(mBatch);
+  private int mBatchLength;
+  private final CRC32 mCrc = new CRC32();
+
+  private long mSequence;
+  private RandomAccessFile mFile;
+  private FileChannel mChannel;
+  private long mSegmentSize;
+  private long mSegmentCreated;
+  private long mUnsyncedBytes;
+  private long mLastSync;
+  private boolean mSyncNow;
+
+  public RotatingFileSink(File directory, String prefix) {
+    this(directory, prefix, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENT_AGE_MILLIS, DEFAULT_TOTAL_BYTES);
+  }
+
+  /**
+   * segments are created lazily, numbering continues after the segments already in directory
+   */
+  public RotatingFileSink(File directory, String prefix, long maxSegmentBytes,
+                          long maxSegmentAgeMillis, long maxTotalBytes) {
+    if (maxSegmentBytes <= HEADER_SIZE || maxTotalBytes < maxSegmentBytes) {
+      throw new IllegalArgumentException("segment " + maxSegmentBytes + ", total " + maxTotalBytes);
+    }
+    mDirectory = directory;
+    mPrefix = prefix;
+    mMaxSegmentBytes = maxSegmentBytes;
+    mMaxSegmentAgeMillis = maxSegmentAgeMillis;
+    mMaxTotalBytes = maxTotalBytes;
+    directory.mkdirs();
+    List<File> segments = listSegments(directory, prefix);
+    if (!segments.isEmpty()) {
+      mSequence = sequenceOf(segments.get(segments.size() - 1), prefix);
+    }
+  }
+
+  @Override
+  public synchronized void write(long timeMillis, long threadId, int priority, String tag,
+                                 String message, Throwable t) {
+    int tagChars = tag == null ? 0 : Math.min(tag.length(), MAX_TAG_CHARS);
+    int messageChars = message == null ? 0 : Math.min(message.length(), MAX_MESSAGE_CHARS);
+    if (mBatchLength + RECORD_HEADER_SIZE + FIXED_PAYLOAD_SIZE + 3 * (tagChars + messageChars)
+        > BATCH_SIZE) {
+      writeBatch();
+    }
+    ByteBuffer buffer = mBatchBuffer;
+    int start = mBatchLength;
+    int position = start + RECORD_HEADER_SIZE;
+    buffer.putLong(position, timeMillis);
+    buffer.putLong(position + 8, threadId);
+    buffer.put(position + 16, (byte) priority);
+    position += FIXED_PAYLOAD_SIZE;
+    if (tag == null) {
+      buffer.putShort(position - 2, (short) -1);
+    } else {
+      int length = DigestEngine.encodeUtf8(tag, 0, tagChars, mBatch, position);
+      buffer.putShort(position - 2, (short) length);
+      position += length;
+    }
+    if (message != null) {
+      position += DigestEngine.encodeUtf8(message, 0, messageChars, mBatch, position);
+    }
+    int payload = position - start - RECORD_HEADER_SIZE;
+    mCrc.reset();
+    mCrc.update(mBatch, start + RECORD_HEADER_SIZE, payload);
+    buffer.putInt(start, payload);
+    buffer.putInt(start + 4, (int) mCrc.getValue());
+    mBatchLength = position;
+    if (priority >= Log.ERROR) {
+      mSyncNow = true;
+    }
+  }
+
+  @Override
+  public synchronized void flush() {
+    writeBatch();
+    if (mChannel == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (mSyncNow || mUnsyncedBytes >= SYNC_BYTES || now - mLastSync >= SYNC_INTERVAL_MILLIS) {
+      sync(now);
+    }
+    if (now - mSegmentCreated >= mMaxSegmentAgeMillis) {
+      closeSegment();
+    }
+  }
+
+  /**
+   * write and close the current segment, every segment in {@link #getSegments} is complete after
+   */
+  public synchronized void rotate() {
+    writeBatch();
+    closeSegment();
+  }
+
+  /**
+   * @return segments oldest first, e.g. for upload after {@link #rotate}
+   */
+  public List<File> getSegments() {
+    return listSegments(mDirectory, mPrefix);
+  }
+
+  /**
+   * @return segments of prefix in directory, oldest first
+   */
+  public static List<File> listSegments(File directory, final String prefix) {
+    List<File> segments = new ArrayList<>();
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return segments;
+    }
+    for (File file : files) {
+      if (sequenceOf(file, prefix) > 0) {
+        segments.add(file);
+      }
+    }
+    Collections.sort(segments, new Comparator<File>() {
+      @Override
+      public int compare(File lhs, File rhs) {
+        long left = sequenceOf(lhs, prefix);
+        long right = sequenceOf(rhs, prefix);
+        return left < right ? -1 : (left == right ? 0 : 1);
+      }
+    });
+    return segments;
+  }
+
+  /**
+   * raw bytes of segments back to back, each opened when the previous one is used up
+   */
+  public static InputStream openSegments(final List<File> segments) {
+    return new SequenceInputStream(new Enumeration<InputStream>() {
+      private int mNext;
+
+      @Override
+      public boolean hasMoreElements() {
+        return mNext < segments.size();
+      }
+
+      @Override
+      public InputStream nextElement() {
+        if (mNext >= segments.size()) {
+          throw new NoSuchElementException();
+        }
+        File segment = segments.get(mNext++);
+        try {
+          return new FileInputStream(segment);
+        } catch (FileNotFoundException e) {
+          // deleted by the budget meanwhile, upload the rest
+          return new ByteArrayInputStream(new byte[0]);
+        }
+      }
+    });
+  }
+
+  // segment sequence from its name, or -1
+  private static long sequenceOf(File file, String prefix) {
+    String name = file.getName();
+    int start = prefix.length() + 1;
+    if (!name.startsWith(prefix) || !name.endsWith(SUFFIX) || name.length() <= start + SUFFIX.length()
+        || name.charAt(start - 1) != '-') {
+      return -1;
+    }
+    try {
+      return Long.parseLong(name.substring(start, name.length() - SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void writeBatch() {
+    if (mBatchLength == 0) {
+      return;
+    }
+    try {
+      if (mChannel == null) {
+        openSegment();
+      }
+      mBatchBuffer.limit(mBatchLength);
+      mBatchBuffer.position(0);
+      FileUtils.writeFully(mChannel, mBatchBuffer);
+      mSegmentSize += mBatchLength;
+      mUnsyncedBytes += mBatchLength;
+    } catch (IOException e) {
+      // the batch is lost, the next one tries a fresh segment
+      Log.w(TAG, "log write failed", e);
+      closeSegment();
+    } finally {
+      mBatchLength = 0;
+      mBatchBuffer.clear();
+    }
+    if (mChannel != null && mSegmentSize >= mMaxSegmentBytes) {
+      closeSegment();
+    }
+  }
+
+  private void openSegment() throws IOException {
+    File file = new File(mDirectory, String.format(Locale.US, "%s-%010d%s", mPrefix, ++mSequence, SUFFIX));
+    mFile = new RandomAccessFile(file, "rw");
+    mFile.setLength(0);
+    mChannel = mFile.getChannel();
+    mSegmentCreated = System.currentTimeMillis();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putLong(mSegmentCreated).flip();
+    FileUtils.writeFully(mChannel, header);
+    mSegmentSize = HEADER_SIZE;
+    mUnsyncedBytes = HEADER_SIZE;
+    mLastSync = mSegmentCreated;
+    enforceBudget(file);
+  }
+
+  private void sync(long now) {
+    try {
+      mChannel.force(false);
+    } catch (IOException e) {
+      Log.w(TAG, "log sync failed", e);
+    }
+    mUnsyncedBytes = 0;
+    mLastSync = now;
+    mSyncNow = false;
+  }
+
+  private void closeSegment() {
+    if (mFile == null) {
+      return;
+    }
+    if (mUnsyncedBytes > 0) {
+      sync(System.currentTimeMillis());
+    }
+    try {
+      mFile.close();
+    } catch (IOException e) {
+      Log.w(TAG, "log close failed", e);
+    }
+    mFile = null;
+    mChannel = null;
+  }
+
+  // delete the oldest segments until the rest, current included, fits the budget
+  private void enforceBudget(File current) {
+    List<File> segments = listSegments(mDirectory, mPrefix);
+    long total = 0;
+    for (File segment : segments) {
+      total += segment.equals(current) ? mMaxSegmentBytes : segment.length();
+    }
+    for (File segment : segments) {
+      if (total <= mMaxTotalBytes || segment.equals(current)) {
+        break;
+      }
+      long length = segment.length();
+      if (segment.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  /**
+   * sequential reader of one segment, stops at the end or at the first torn / corrupted record
+   */
+  public static final class Reader implements Closeable {
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final long mCreated;
+    private final CRC32 mCrc = new CRC32();
+    private byte[] mScratch = new byte[256];
+    private ByteBuffer mRecord = ByteBuffer.wrap(mScratch);
+    private boolean mCorrupted;
+
+    private long mTime;
+    private long mThreadId;
+    private int mPriority;
+    private String mTag;
+    private String mMessage;
+
+    public Reader(File segment) throws IOException {
+      mFile = new RandomAccessFile(segment, "r");
+      try {
+        FileChannel channel = mFile.getChannel();
+        mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (mBuffer.remaining() < HEADER_SIZE || mBuffer.getInt() != MAGIC) {
+          throw new IOException("not a log segment " + segment);
+        }
+        int version = mBuffer.getInt();
+        if (version != VERSION) {
+          throw new IOException("unsupported log segment version " + version);
+        }
+        mCreated = mBuffer.getLong();
+      } catch (IOException e) {
+        mFile.close();
+        throw e;
+      }
+    }
+
+    public long getCreatedMillis() {
+      return mCreated;
+    }
+
+    /**
+     * move to the next record
+     * @return false at the end, see {@link #isCorrupted}
+     */
+    public boolean next() {
+      ByteBuffer buffer = mBuffer;
+      if (mCorrupted || buffer.remaining() < RECORD_HEADER_SIZE) {
+        return false;
+      }
+      int payload = buffer.getInt(buffer.position());
+      int crc = buffer.getInt(buffer.position() + 4);
+      if (payload < FIXED_PAYLOAD_SIZE || payload > buffer.remaining() - RECORD_HEADER_SIZE) {
+        mCorrupted = true;
+        return false;
+      }
+      if (mScratch.length < payload) {
+        mScratch = new byte[Math.max(payload, mScratch.length * 2)];
+        mRecord = ByteBuffer.wrap(mScratch);
+      }
+      buffer.position(buffer.position() + RECORD_HEADER_SIZE);
+      buffer.get(mScratch, 0, payload);
+      mCrc.reset();
+      mCrc.update(mScratch, 0, payload);
+      if ((int) mCrc.getValue() != crc) {
+        mCorrupted = true;
+        return false;
+      }
+      mTime = mRecord.getLong(0);
+      mThreadId = mRecord.getLong(8);
+      mPriority = mRecord.get(16);
+      int tagLength = mRecord.getShort(17);
+      int position = FIXED_PAYLOAD_SIZE;
+      if (tagLength < 0) {
+        mTag = null;
+      } else {
+        mTag = new String(mScratch, position, tagLength, UTF_8);
+        position += tagLength;
+      }
+      mMessage = new String(mScratch, position, payload - position, UTF_8);
+      return true;
+    }
+
+    /**
+     * @return true if reading ended before the end of the file, a torn tail after a kill
+     * or a damaged record
+     */
+    public boolean isCorrupted() {
+      return mCorrupted;
+    }
+
+    public long getTime() {
+      return mTime;
+    }
+
+    public long getThreadId() {
+      return mThreadId;
+    }
+
+    public int getPriority() {
+      return mPriority;
+    }
+
+    public String getTag() {
+      return mTag;
+    }
+
+    public String getMessage() {
+      return mMessage;
+    }
+
+    @Override
+    public void close() throws IOException {
+      mFile.close();
+    }
+  }
+}
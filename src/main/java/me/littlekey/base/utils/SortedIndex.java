@@ -0,0 +1,204 @@
+package me.littlekey.base.utils;
+
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+
+import me.littlekey.base.ReadOnlyList;
+
+/**
+ * secondary order of a {@link LinkedHashTreeSet}, sorted by a comparator, kept up to date on
+ * every add / remove / set of the owner, see {@link LinkedHashTreeSet#addSortedIndex}.
+ * <p>
+ * backed by a {@link PositionTree} over the owner's slots, so there is no node object and no
+ * copy of the items: insert / remove O(log n), {@link #getItem} by rank O(log n),
+ * {@link #rankOf} O(log n), {@link #lowerBound} / {@link #upperBound} O(log n) comparisons,
+ * {@link #forEachInRange} O(log n + k).
+ * <p>
+ * items comparing equal keep an unspecified but stable order. the compared fields of an item
+ * must not change while it is in the set, re-set it with
+ * {@link LinkedHashTreeSet#set(int, Object)} to move it after a change.
+ * Created by littlekey on 26/10/18.
+ */
+public final class SortedIndex<V> implements ReadOnlyList<V> {
+  private final LinkedHashTreeSet<V> mSet;
+  private final Comparator<? super V> mComparator;
+  private final PositionTree mTree;
+  private int mModCount;
+  // next index of the same owner
+  SortedIndex<V> mNext;
+
+  // current search, one probe per index instead of one per query
+  private final PositionTree.Probe mProbe = new PositionTree.Probe() {
+    @Override
+    public boolean before(int slot) {
+      int result = mComparator.compare(value(slot), mProbeValue);
+      if (result != 0) {
+        return result < 0;
+      }
+      if (mProbeSlot != PositionIndex.NO_SLOT) {
+        return slot < mProbeSlot;
+      }
+      return mProbeInclusive;
+    }
+  };
+  private V mProbeValue;
+  private int mProbeSlot;
+  private boolean mProbeInclusive;
+
+  SortedIndex(LinkedHashTreeSet<V> set, Comparator<? super V> comparator) {
+    mSet = set;
+    mComparator = comparator;
+    mTree = new PositionTree(set.slotCapacity());
+    int[] slots = set.slotOrder();
+    sortSlots(slots);
+    mTree.rebuild(slots, slots.length);
+  }
+
+  public Comparator<? super V> getComparator() {
+    return mComparator;
+  }
+
+  @Override
+  public int size() {
+    return mTree.size();
+  }
+
+  /**
+   * @param rank 0 for the smallest item
+   */
+  @Override
+  public V getItem(int rank) {
+    checkRank(rank);
+    return value(mTree.slotAt(rank));
+  }
+
+  public V first() {
+    return getItem(0);
+  }
+
+  public V last() {
+    return getItem(size() - 1);
+  }
+
+  /**
+   * @return rank of the item of the owner matching value, or -1
+   */
+  public int rankOf(Object value) {
+    int slot = mSet.slotOf(value);
+    return slot == PositionIndex.NO_SLOT ? -1 : mTree.positionOf(slot);
+  }
+
+  /**
+   * @return rank of the first item >= value, size when there is none
+   */
+  public int lowerBound(V value) {
+    return search(value, PositionIndex.NO_SLOT, false);
+  }
+
+  /**
+   * @return rank of the first item > value, size when there is none
+   */
+  public int upperBound(V value) {
+    return search(value, PositionIndex.NO_SLOT, true);
+  }
+
+  /**
+   * @return number of items in [from, to)
+   */
+  public int countInRange(V from, V to) {
+    return Math.max(0, lowerBound(to) - lowerBound(from));
+  }
+
+  /**
+   * visit items in [from, to) in sorted order
+   * @throws ConcurrentModificationException visitor modified the owner
+   */
+  public void forEachInRange(V from, V to, LinkedHashTreeSet.Visitor<? super V> visitor) {
+    forEachInRank(lowerBound(from), lowerBound(to), visitor);
+  }
+
+  /**
+   * visit items of rank [start, end) in sorted order
+   * @throws ConcurrentModificationException visitor modified the owner
+   */
+  public void forEachInRank(int start, int end, LinkedHashTreeSet.Visitor<? super V> visitor) {
+    if (start < 0 || end > size()) {
+      throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", size: " + size());
+    }
+    int expectedModCount = mModCount;
+    for (int rank = start, slot = start < end ? mTree.slotAt(start) : PositionIndex.NO_SLOT;
+        rank < end; slot = mTree.nextSlot(rank++, slot)) {
+      visitor.visit(value(slot));
+      if (mModCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  void onSlotAdded(int slot) {
+    mTree.ensureCapacity(mSet.slotCapacity());
+    mTree.insert(search(value(slot), slot, false), slot);
+    ++mModCount;
+  }
+
+  void onSlotRemoved(int slot) {
+    mTree.removeAt(mTree.positionOf(slot));
+    ++mModCount;
+  }
+
+  void onCleared() {
+    mTree.clear();
+    ++mModCount;
+  }
+
+  private int search(V value, int slot, boolean inclusive) {
+    mProbeValue = value;
+    mProbeSlot = slot;
+    mProbeInclusive = inclusive;
+    try {
+      return mTree.countBefore(mProbe);
+    } finally {
+      mProbeValue = null;
+    }
+  }
+
+  // bottom up merge sort by value then slot, on the ints themselves, no boxed copy
+  private void sortSlots(int[] slots) {
+    int size = slots.length;
+    int[] from = slots;
+    int[] to = new int[size];
+    for (int width = 1; width < size; width <<= 1) {
+      for (int low = 0; low < size; low += width << 1) {
+        int mid = Math.min(low + width, size);
+        int high = Math.min(mid + width, size);
+        int i = low;
+        int j = mid;
+        for (int k = low; k < high; ++k) {
+          to[k] = j == high || (i < mid && compare(from[i], from[j]) <= 0) ? from[i++] : from[j++];
+        }
+      }
+      int[] swap = from;
+      from = to;
+      to = swap;
+    }
+    if (from != slots) {
+      System.arraycopy(from, 0, slots, 0, size);
+    }
+  }
+
+  private int compare(int lhs, int rhs) {
+    int result = mComparator.compare(value(lhs), value(rhs));
+    return result != 0 ? result : (lhs < rhs ? -1 : (lhs == rhs ? 0 : 1));
+  }
+
+  @SuppressWarnings("unchecked")
+  private V value(int slot) {
+    return (V) mSet.valueAt(slot);
+  }
+
+  private void checkRank(int rank) {
+    if (rank < 0 || rank >= size()) {
+      throw new IndexOutOfBoundsException("rank: " + rank + ", size: " + size());
+    }
+  }
+}